@@ -25,32 +25,39 @@ import io.appform.dropwizard.sharding.admin.BlacklistShardTask;
 import io.appform.dropwizard.sharding.admin.UnblacklistShardTask;
 import io.appform.dropwizard.sharding.caching.LookupCache;
 import io.appform.dropwizard.sharding.caching.RelationalCache;
+import io.appform.dropwizard.sharding.config.ReplicaConfig;
 import io.appform.dropwizard.sharding.config.ShardedHibernateFactory;
 import io.appform.dropwizard.sharding.dao.*;
 import io.appform.dropwizard.sharding.healthcheck.HealthCheckManager;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.appform.dropwizard.sharding.sharding.BucketIdExtractor;
+import io.appform.dropwizard.sharding.sharding.GlobalIndex;
 import io.appform.dropwizard.sharding.sharding.InMemoryLocalShardBlacklistingStore;
 import io.appform.dropwizard.sharding.sharding.ShardBlacklistingStore;
 import io.appform.dropwizard.sharding.sharding.ShardManager;
 import io.appform.dropwizard.sharding.sharding.impl.ConsistentHashBucketIdExtractor;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
+import io.appform.dropwizard.sharding.utils.EntityIndex;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
+import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.db.PooledDataSourceFactory;
 import io.dropwizard.hibernate.AbstractDAO;
 import io.dropwizard.hibernate.HibernateBundle;
-import io.dropwizard.hibernate.SessionFactoryFactory;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.hibernate.SessionFactory;
-import org.reflections.Reflections;
 
-import javax.persistence.Entity;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +78,12 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
     @Getter
     private List<SessionFactory> sessionFactories;
     @Getter
+    private List<List<SessionFactory>> replicaSessionFactories;
+    @Getter
+    private ReplicaManager replicaManager = ReplicaManager.noReplicas();
+    @Getter
+    private DaoMetrics daoMetrics = DaoMetrics.unregistered();
+    @Getter
     private ShardManager shardManager;
     @Getter
     private String dbNamespace;
@@ -81,6 +94,12 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
 
     private HealthCheckManager healthCheckManager;
 
+    private ImmutableList<Class<?>> entities;
+
+    private final ParallelSessionFactoryFactory sessionFactoryFactory = new ParallelSessionFactoryFactory();
+
+    private boolean shardsBuilt;
+
     protected DBShardingBundleBase(
             String dbNamespace,
             Class<?> entity,
@@ -90,9 +109,13 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
         init(inEntities);
     }
 
+    /**
+     * Creates the bundle for the entities in the given packages. Entities are taken from the index generated at build
+     * time where available and found by scanning the classpath otherwise. See {@link EntityIndex}.
+     */
     protected DBShardingBundleBase(String dbNamespace, List<String> classPathPrefixList) {
         this.dbNamespace = dbNamespace;
-        Set<Class<?>> entities = new Reflections(classPathPrefixList).getTypesAnnotatedWith(Entity.class);
+        Set<Class<?>> entities = EntityIndex.entities(classPathPrefixList);
         Preconditions.checkArgument(!entities.isEmpty(), String.format("No entity class found at %s", String.join(",", classPathPrefixList)));
         val inEntities = ImmutableList.<Class<?>>builder().addAll(entities).build();
         init(inEntities);
@@ -106,9 +129,22 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
         this(DEFAULT_NAMESPACE, Arrays.asList(classPathPrefixes));
     }
 
+    /**
+     * Adds the table of {@link GlobalIndexEntry} to the shards when any of the entities has a {@link GlobalIndex}.
+     */
+    private static ImmutableList<Class<?>> withGlobalIndexEntries(ImmutableList<Class<?>> inEntities) {
+        final boolean indexed = inEntities.stream()
+                .anyMatch(entity -> FieldUtils.getFieldsWithAnnotation(entity, GlobalIndex.class).length != 0);
+        if (!indexed || inEntities.contains(GlobalIndexEntry.class)) {
+            return inEntities;
+        }
+        return ImmutableList.<Class<?>>builder().addAll(inEntities).add(GlobalIndexEntry.class).build();
+    }
+
     protected abstract ShardManager createShardManager(int numShards, ShardBlacklistingStore blacklistingStore);
 
     private void init(final ImmutableList<Class<?>> inEntities) {
+        this.entities = withGlobalIndexEntries(inEntities);
         boolean defaultNamespace = StringUtils.equalsIgnoreCase(dbNamespace, DEFAULT_NAMESPACE);
         val numShardsProperty = defaultNamespace ? SHARD_ENV : String.join(".", dbNamespace, SHARD_ENV);
         String numShardsEnv = System.getProperty(numShardsProperty, DEFAULT_SHARDS);
@@ -118,7 +154,7 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
         this.shardInfoProvider = new ShardInfoProvider(dbNamespace);
         this.healthCheckManager = new HealthCheckManager(dbNamespace, shardInfoProvider, blacklistingStore, shardManager);
         IntStream.range(0, numShards).forEach(
-                shard -> shardBundles.add(new HibernateBundle<T>(inEntities, new SessionFactoryFactory()) {
+                shard -> shardBundles.add(new HibernateBundle<T>(entities, sessionFactoryFactory) {
                     @Override
                     protected String name() {
                         return shardInfoProvider.shardName(shard);
@@ -128,6 +164,12 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
                     public PooledDataSourceFactory getDataSourceFactory(T t) {
                         return getConfig(t).getShards().get(shard);
                     }
+
+                    @Override
+                    public void run(T configuration, Environment environment) throws Exception {
+                        buildShards(configuration, environment);
+                        super.run(configuration, environment);
+                    }
                 })
         );
     }
@@ -135,6 +177,27 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
     @Override
     public void run(T configuration, Environment environment) {
         sessionFactories = shardBundles.stream().map(HibernateBundle::getSessionFactory).collect(Collectors.toList());
+        replicaSessionFactories = buildReplicaSessionFactories(configuration, environment);
+        val replicaConfig = getConfig(configuration).getReplicaConfig();
+        replicaManager = new ReplicaManager(replicaSessionFactories,
+                null != replicaConfig ? replicaConfig : ReplicaConfig.builder().build(),
+                environment.metrics(), dbNamespace);
+        environment.lifecycle().manage(replicaManager);
+        daoMetrics = new DaoMetrics(environment.metrics(), dbNamespace);
+        val circuitBreakerConfig = getConfig(configuration).getCircuitBreaker();
+        if (null != circuitBreakerConfig) {
+            shardManager.enableCircuitBreaker(circuitBreakerConfig);
+        }
+        val bulkheadConfig = getConfig(configuration).getBulkhead();
+        if (null != bulkheadConfig) {
+            shardManager.enableBulkhead(bulkheadConfig);
+        }
+        val fanoutThreads = getConfig(configuration).getFanoutThreads();
+        if (fanoutThreads > 0) {
+            val fanoutPool = "shard-fanout-" + dbNamespace;
+            environment.lifecycle().manage(new ExecutorServiceManager(
+                    shardManager.enableFanout(fanoutThreads, fanoutPool), Duration.seconds(5), fanoutPool));
+        }
         environment.admin().addTask(new BlacklistShardTask(shardManager));
         environment.admin().addTask(new UnblacklistShardTask(shardManager));
         healthCheckManager.manageHealthChecks(getConfig(configuration).getBlacklist(), environment);
@@ -148,6 +211,27 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
         shardBundles.forEach(hibernateBundle -> bootstrap.addBundle((ConfiguredBundle) hibernateBundle));
     }
 
+    /**
+     * Builds the session factories of all shards in parallel when the first shard bundle is run. The bundles are run
+     * by Dropwizard one after the other on the same thread.
+     */
+    private void buildShards(T configuration, Environment environment) {
+        if (shardsBuilt) {
+            return;
+        }
+        shardsBuilt = true;
+        val shards = getConfig(configuration).getShards();
+        sessionFactoryFactory.buildAll(
+                IntStream.range(0, numShards)
+                        .mapToObj(shard -> new ParallelSessionFactoryFactory.Shard(
+                                shardBundles.get(shard), shards.get(shard), shardInfoProvider.shardName(shard)))
+                        .collect(Collectors.toList()),
+                entities,
+                configuration,
+                environment,
+                getConfig(configuration).getBootstrapParallelism());
+    }
+
     @VisibleForTesting
     public void runBundles(T configuration, Environment environment) {
         shardBundles.forEach(hibernateBundle -> {
@@ -160,6 +244,67 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
         });
     }
 
+    /**
+     * Replica count is known only once configuration is available. So replica bundles are run here directly
+     * instead of being registered with bootstrap like the shard bundles. Their session factories are built in parallel
+     * in the same way as those of the shards before the bundles are run.
+     */
+    private List<List<SessionFactory>> buildReplicaSessionFactories(T configuration, Environment environment) {
+        val replicaConfigs = getConfig(configuration).getReplicas();
+        final List<List<HibernateBundle<T>>> replicaBundles = IntStream.range(0, numShards)
+                .mapToObj(shard -> {
+                    final List<DataSourceFactory> replicas = null == replicaConfigs
+                            ? Collections.emptyList()
+                            : replicaConfigs.getOrDefault(shard, Collections.emptyList());
+                    return IntStream.range(0, replicas.size())
+                            .mapToObj(replica -> replicaBundle(shard, replica, replicas.get(replica)))
+                            .collect(Collectors.toList());
+                })
+                .collect(Collectors.toList());
+        sessionFactoryFactory.buildAll(
+                IntStream.range(0, numShards)
+                        .boxed()
+                        .flatMap(shard -> IntStream.range(0, replicaBundles.get(shard).size())
+                                .mapToObj(replica -> new ParallelSessionFactoryFactory.Shard(
+                                        replicaBundles.get(shard).get(replica),
+                                        replicaBundles.get(shard).get(replica).getDataSourceFactory(configuration),
+                                        shardInfoProvider.replicaName(shard, replica))))
+                        .collect(Collectors.toList()),
+                entities,
+                configuration,
+                environment,
+                getConfig(configuration).getBootstrapParallelism());
+        return IntStream.range(0, numShards)
+                .mapToObj(shard -> IntStream.range(0, replicaBundles.get(shard).size())
+                        .mapToObj(replica -> {
+                            val replicaBundle = replicaBundles.get(shard).get(replica);
+                            try {
+                                replicaBundle.run(configuration, environment);
+                            } catch (Exception e) {
+                                log.error("Error initializing replica {} for shard {}", replica, shard, e);
+                                throw new RuntimeException(e);
+                            }
+                            log.info("Initialized replica {} for shard {}", replica, shard);
+                            return replicaBundle.getSessionFactory();
+                        })
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private HibernateBundle<T> replicaBundle(int shard, int replica, DataSourceFactory dataSourceFactory) {
+        return new HibernateBundle<T>(entities, sessionFactoryFactory) {
+            @Override
+            protected String name() {
+                return shardInfoProvider.replicaName(shard, replica);
+            }
+
+            @Override
+            public PooledDataSourceFactory getDataSourceFactory(T t) {
+                return dataSourceFactory;
+            }
+        };
+    }
+
     @VisibleForTesting
     public void initBundles(Bootstrap bootstrap) {
         shardBundles.forEach(hibernameBundle -> initialize(bootstrap));
@@ -179,7 +324,8 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
     public <EntityType, T extends Configuration>
     LookupDao<EntityType> createParentObjectDao(Class<EntityType> clazz) {
         return new LookupDao<>(this.sessionFactories, clazz,
-                new ShardCalculator<>(this.shardManager, new ConsistentHashBucketIdExtractor<>(this.shardManager)));
+                new ShardCalculator<>(this.shardManager, new ConsistentHashBucketIdExtractor<>(this.shardManager)),
+                this.replicaManager, this.daoMetrics);
     }
 
     public <EntityType, T extends Configuration>
@@ -187,27 +333,30 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
                                                          LookupCache<EntityType> cacheManager) {
         return new CacheableLookupDao<>(this.sessionFactories, clazz,
                 new ShardCalculator<>(this.shardManager, new ConsistentHashBucketIdExtractor<>(this.shardManager)),
-                cacheManager);
+                cacheManager, this.replicaManager, this.daoMetrics);
     }
 
     public <EntityType, T extends Configuration>
     LookupDao<EntityType> createParentObjectDao(Class<EntityType> clazz,
                                                 BucketIdExtractor<String> bucketIdExtractor) {
-        return new LookupDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor));
+        return new LookupDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor),
+                this.replicaManager, this.daoMetrics);
     }
 
     public <EntityType, T extends Configuration>
     CacheableLookupDao<EntityType> createParentObjectDao(Class<EntityType> clazz,
                                                          BucketIdExtractor<String> bucketIdExtractor,
                                                          LookupCache<EntityType> cacheManager) {
-        return new CacheableLookupDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor), cacheManager);
+        return new CacheableLookupDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor),
+                cacheManager, this.replicaManager, this.daoMetrics);
     }
 
 
     public <EntityType, T extends Configuration>
     RelationalDao<EntityType> createRelatedObjectDao(Class<EntityType> clazz) {
         return new RelationalDao<>(this.sessionFactories, clazz,
-                new ShardCalculator<>(this.shardManager, new ConsistentHashBucketIdExtractor<>(this.shardManager)));
+                new ShardCalculator<>(this.shardManager, new ConsistentHashBucketIdExtractor<>(this.shardManager)),
+                this.replicaManager, this.daoMetrics);
     }
 
 
@@ -217,21 +366,23 @@ abstract class DBShardingBundleBase<T extends Configuration> implements Configur
                 clazz,
                 new ShardCalculator<>(this.shardManager,
                         new ConsistentHashBucketIdExtractor<>(this.shardManager)),
-                cacheManager);
+                cacheManager, this.replicaManager, this.daoMetrics);
     }
 
 
     public <EntityType, T extends Configuration>
     RelationalDao<EntityType> createRelatedObjectDao(Class<EntityType> clazz,
                                                      BucketIdExtractor<String> bucketIdExtractor) {
-        return new RelationalDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor));
+        return new RelationalDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor),
+                this.replicaManager, this.daoMetrics);
     }
 
     public <EntityType, T extends Configuration>
     CacheableRelationalDao<EntityType> createRelatedObjectDao(Class<EntityType> clazz,
                                                               BucketIdExtractor<String> bucketIdExtractor,
                                                               RelationalCache<EntityType> cacheManager) {
-        return new CacheableRelationalDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor), cacheManager);
+        return new CacheableRelationalDao<>(this.sessionFactories, clazz, new ShardCalculator<>(this.shardManager, bucketIdExtractor),
+                cacheManager, this.replicaManager, this.daoMetrics);
     }
 
 
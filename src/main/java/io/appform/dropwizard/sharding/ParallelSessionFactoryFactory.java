@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding;
+
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.Configuration;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.db.PooledDataSourceFactory;
+import io.dropwizard.hibernate.HibernateBundle;
+import io.dropwizard.hibernate.SessionFactoryFactory;
+import io.dropwizard.jersey.validation.Validators;
+import io.dropwizard.setup.Environment;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.hibernate.SessionFactory;
+
+import javax.validation.ValidatorFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the session factories of all shards in parallel before the shard bundles are run one after the other by
+ * Dropwizard. The bundles then pick up the session factories built for them.
+ * The lifecycle of the application environment can not be changed from many threads, so each build registers its
+ * data source and session factory in an environment of its own. They are moved to the application environment when
+ * the bundle of the shard is run.
+ */
+@Slf4j
+class ParallelSessionFactoryFactory extends SessionFactoryFactory {
+
+    @Value
+    static class Shard {
+        HibernateBundle<?> bundle;
+        PooledDataSourceFactory dataSourceFactory;
+        String name;
+    }
+
+    @Value
+    private static class Built {
+        SessionFactory sessionFactory;
+        List<LifeCycle> managedObjects;
+    }
+
+    private final Map<String, Built> built = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the session factories of the shards on a pool of the given size. Failures are collected across shards
+     * and thrown together once all builds are done. The session factories and data sources of the shards that were
+     * built are stopped in that case.
+     */
+    void buildAll(List<Shard> shards,
+                  List<Class<?>> entities,
+                  Configuration configuration,
+                  Environment environment,
+                  int parallelism) {
+        if (parallelism <= 1 || shards.size() <= 1) {
+            return;
+        }
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final ValidatorFactory validatorFactory = Validators.newValidatorFactory();
+        final ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(parallelism, shards.size()),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("session-factory-builder-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            final Map<String, Future<Built>> futures = new LinkedHashMap<>();
+            shards.forEach(shard -> futures.put(shard.getName(), executorService.submit(
+                    () -> build(shard, entities, configuration, environment, validatorFactory))));
+            final List<Throwable> failures = new ArrayList<>();
+            for (Map.Entry<String, Future<Built>> future : futures.entrySet()) {
+                try {
+                    built.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    log.error("Error building session factory for {}", future.getKey(), e.getCause());
+                    failures.add(e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                releaseAll();
+                final RuntimeException error = new RuntimeException(String.format(
+                        "Error building session factories for %d of %d shards", failures.size(), shards.size()),
+                        failures.get(0));
+                failures.subList(1, failures.size()).forEach(error::addSuppressed);
+                throw error;
+            }
+            log.info("Built session factories for {} shards in {} ms",
+                     shards.size(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            releaseAll();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+            validatorFactory.close();
+        }
+    }
+
+    @Override
+    public SessionFactory build(HibernateBundle<?> bundle,
+                                Environment environment,
+                                PooledDataSourceFactory dbConfig,
+                                List<Class<?>> entities,
+                                String name) {
+        final Built shard = built.remove(name);
+        if (null == shard) {
+            return super.build(bundle, environment, dbConfig, entities, name);
+        }
+        shard.getManagedObjects().forEach(environment.lifecycle()::manage);
+        return shard.getSessionFactory();
+    }
+
+    private Built build(Shard shard,
+                        List<Class<?>> entities,
+                        Configuration configuration,
+                        Environment environment,
+                        ValidatorFactory validatorFactory) {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final Environment shardEnvironment = new Environment(shard.getName(),
+                                                             environment.getObjectMapper(),
+                                                             validatorFactory,
+                                                             environment.metrics(),
+                                                             Thread.currentThread().getContextClassLoader(),
+                                                             new HealthCheckRegistry(),
+                                                             configuration);
+        final int existing = shardEnvironment.lifecycle().getManagedObjects().size();
+        final ManagedDataSource dataSource = shard.getDataSourceFactory().build(environment.metrics(), shard.getName());
+        final SessionFactory sessionFactory;
+        try {
+            sessionFactory = build(shard.getBundle(), shardEnvironment, shard.getDataSourceFactory(), dataSource, entities);
+        } catch (RuntimeException e) {
+            stop(shard.getName(), dataSource);
+            throw e;
+        }
+        final List<LifeCycle> managedObjects = shardEnvironment.lifecycle().getManagedObjects();
+        log.info("Built session factory for {} in {} ms", shard.getName(), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        return new Built(sessionFactory, new ArrayList<>(managedObjects.subList(existing, managedObjects.size())));
+    }
+
+    /**
+     * Stops the session factories and data sources built so far. Used when the build of any shard fails, as the
+     * bundles that would have handed them to the application lifecycle will not be run.
+     */
+    private void releaseAll() {
+        built.forEach((name, shard) -> {
+            shard.getManagedObjects().forEach(managed -> stop(name, managed));
+            if (!shard.getSessionFactory().isClosed()) {
+                shard.getSessionFactory().close();
+            }
+        });
+        built.clear();
+    }
+
+    private static void stop(String name, LifeCycle managed) {
+        try {
+            managed.stop();
+        } catch (Exception e) {
+            log.warn("Error stopping {} for {}", managed, name, e);
+        }
+    }
+
+    private static void stop(String name, ManagedDataSource dataSource) {
+        try {
+            dataSource.stop();
+        } catch (Exception e) {
+            log.warn("Error stopping data source for {}", name, e);
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class ShardInfoProvider {
 
     private final String namespace;
     private static final String SHARD_NAMING_FORMAT = "connectionpool-%s-%d";
+    private static final String REPLICA_NAMING_FORMAT = "connectionpool-%s-%d-replica-%d";
     private static final String SHARD_NAMING_REGEX = "connectionpool-(\\w+)-(\\d+)";
     private static final Pattern SHARD_NAMING_PATTERN = Pattern.compile(SHARD_NAMING_REGEX);
 
@@ -40,5 +41,9 @@ public class ShardInfoProvider {
         return String.format(SHARD_NAMING_FORMAT, namespace, shardId);
     }
 
+    public String replicaName(int shardId, int replicaId) {
+        return String.format(REPLICA_NAMING_FORMAT, namespace, shardId, replicaId);
+    }
+
 
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Config for {@link io.appform.dropwizard.sharding.dao.LookupBatchLoader}. Gets for single keys are collected per
+ * shard and loaded with one query once the batch is full or the oldest get in it has waited for the maximum delay.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchLoaderConfig {
+
+    /**
+     * Maximum number of distinct keys loaded in one query
+     */
+    @Min(1)
+    @Builder.Default
+    private int maxBatchSize = 100;
+
+    /**
+     * Maximum time a get waits for other gets to batch with
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxDelayMicros = 500;
+
+    /**
+     * Number of threads that load batches that are sent because of the delay. Full batches are loaded on the thread
+     * of the get that filled them.
+     */
+    @Min(1)
+    @Builder.Default
+    private int threads = 4;
+}
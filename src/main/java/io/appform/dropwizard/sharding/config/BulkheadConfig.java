@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Config for per shard admission control. Calls over the limit on a shard wait in a bounded queue or are rejected,
+ * so that a slow shard cannot hold up all request threads.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkheadConfig {
+
+    /**
+     * Maximum number of calls running on a shard at a time. Keep this at or below the connection pool size of a shard.
+     */
+    @Min(1)
+    @Builder.Default
+    private int maxConcurrentCalls = 64;
+
+    /**
+     * Maximum number of calls that can wait for a slot on a shard. Calls are rejected right away if this is 0.
+     */
+    @Min(0)
+    @Builder.Default
+    private int maxQueuedCalls = 0;
+
+    /**
+     * Maximum time a queued call waits for a slot before being rejected
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxWaitMs = 50;
+}
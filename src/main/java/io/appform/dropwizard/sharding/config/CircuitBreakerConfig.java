@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * Config for the per shard circuit breaker. A shard is failed fast for {@link #openDurationMs} once calls to it
+ * fail with timeouts or connection errors, or turn slow, beyond the configured thresholds.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CircuitBreakerConfig {
+
+    /**
+     * Sliding window over which failures and latencies are evaluated
+     */
+    @Min(100)
+    @Builder.Default
+    private long windowMs = 10_000;
+
+    /**
+     * Minimum number of calls in the window before the breaker can trip
+     */
+    @Min(1)
+    @Builder.Default
+    private int minCalls = 20;
+
+    /**
+     * Fraction of calls failing with timeouts or connection errors at which the breaker trips
+     */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    @Builder.Default
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * The breaker trips when the {@link #latencyPercentile} of call latencies in the window goes above this
+     */
+    @Min(1)
+    @Builder.Default
+    private long maxLatencyMs = 5_000;
+
+    @DecimalMin("0.5")
+    @DecimalMax("1.0")
+    @Builder.Default
+    private double latencyPercentile = 0.99;
+
+    /**
+     * Time for which calls are failed fast before probe calls are let through
+     */
+    @Min(1)
+    @Builder.Default
+    private long openDurationMs = 30_000;
+
+    /**
+     * Number of probe calls that need to succeed for the breaker to close again
+     */
+    @Min(1)
+    @Builder.Default
+    private int probeCalls = 5;
+}
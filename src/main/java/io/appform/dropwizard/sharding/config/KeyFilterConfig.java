@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Config for the Bloom filters that let lookups skip the database for keys that do not exist.
+ * A filter takes about 1.2 bytes per expected key at a false positive rate of 1%.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeyFilterConfig {
+
+    /**
+     * Number of keys a shard is expected to hold. The false positive rate goes up once a shard holds more keys.
+     */
+    @Min(1)
+    @Builder.Default
+    private long expectedKeysPerShard = 1_000_000;
+
+    /**
+     * Share of lookups for missing keys that still go to the database. Must be between 0 and 1.
+     */
+    @Builder.Default
+    private double falsePositiveRate = 0.01;
+
+    /**
+     * Number of keys read per round trip when filters are built from the shards.
+     */
+    @Min(1)
+    @Builder.Default
+    private int scanFetchSize = 1000;
+
+    /**
+     * Set only when this process is the only writer of the table. Filters then rule keys out for as long as they are
+     * in use. With other writers, a filter does not know about the keys they insert and would report those keys as
+     * missing.
+     */
+    @Builder.Default
+    private boolean singleWriter = false;
+
+    /**
+     * When the table has other writers, keys are only ruled out by a filter built within this long. Keys inserted by
+     * other writers can then be reported as missing for up to this long after a filter is built, so filters must be
+     * rebuilt more often than this for them to keep skipping lookups. Defaults to 0, where filters never rule keys
+     * out unless {@link #singleWriter} is set. Not used for single writers.
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxFilterAgeMs = 0;
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Config for in process locks on keys. Writers on the same key in a JVM take turns on a local lock before they go to
+ * the database, so that only one of them at a time contends for the row lock.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeyLockConfig {
+
+    /**
+     * Number of locks that keys are hashed to. Keys that hash to the same lock also wait for each other.
+     */
+    @Min(1)
+    @Builder.Default
+    private int stripes = 1024;
+
+    /**
+     * Maximum time to wait for the local lock. The call goes on to the database without it after this.
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxWaitMs = 1000;
+}
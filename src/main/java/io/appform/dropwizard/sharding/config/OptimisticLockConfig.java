@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Retries for updates in {@link io.appform.dropwizard.sharding.dao.ConcurrencyMode#OPTIMISTIC} mode. After a
+ * conflict, the update is retried after a random delay between zero and an exponentially growing cap.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OptimisticLockConfig {
+
+    /**
+     * Maximum number of times an update is tried, including the first one
+     */
+    @Min(1)
+    @Builder.Default
+    private int maxAttempts = 5;
+
+    /**
+     * Cap on the delay before the first retry. The cap doubles for every retry after that.
+     */
+    @Min(0)
+    @Builder.Default
+    private long baseDelayMs = 5;
+
+    /**
+     * Maximum delay before a retry
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxDelayMs = 200;
+}
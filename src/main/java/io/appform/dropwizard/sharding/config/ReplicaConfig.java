@@ -0,0 +1,78 @@
+package io.appform.dropwizard.sharding.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplicaConfig {
+
+    /**
+     * Assumed lag of replicas whose lag has not been measured. Without a {@link #replicationLagQuery}, reads in a
+     * {@link io.appform.dropwizard.sharding.replicas.ConsistencySession} go to a replica once the last write in the
+     * session is older than this. That is only a timeout: a replica lagging further behind serves stale reads.
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxReplicationLagMs = 1000;
+
+    /**
+     * Native query run periodically on every replica that returns its replication lag in milliseconds, for example
+     * {@code SELECT EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000} on PostgreSQL. When set, a
+     * replica serves reads in a {@link io.appform.dropwizard.sharding.replicas.ConsistencySession} only once its
+     * measured position has passed the last write in the session. A replica whose lag cannot be read stops serving
+     * such reads until it can.
+     */
+    private String replicationLagQuery;
+
+    @Min(100)
+    @Builder.Default
+    private long replicationLagPollIntervalMs = 1000;
+
+    /**
+     * Write positions in a {@link io.appform.dropwizard.sharding.replicas.ConsistencySession} are wall clock times of
+     * the node that made the write. Replicas need to be ahead of a write by this much before serving reads, to cover
+     * for tokens carried between nodes whose clocks differ.
+     */
+    @Min(0)
+    @Builder.Default
+    private long maxClockSkewMs = 100;
+
+    /**
+     * Send a second copy of a replica read to another replica of the shard if the first one has not completed within
+     * the observed p95 latency of the shard. The result that arrives first is used.
+     */
+    @Builder.Default
+    private boolean hedgedReads = false;
+
+    /**
+     * Maximum fraction of reads that can be hedged. Caps the extra load hedging puts on the replicas.
+     */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    @Builder.Default
+    private double hedgeBudgetRatio = 0.05;
+
+    /**
+     * Reads are never hedged earlier than this, irrespective of the observed latency.
+     */
+    @Min(1)
+    @Builder.Default
+    private long minHedgeDelayMs = 5;
+
+    /**
+     * Threads used to run hedged reads. Reads are run on the calling thread when all of them are busy.
+     */
+    @Min(1)
+    @Builder.Default
+    private int hedgeThreads = 32;
+
+}
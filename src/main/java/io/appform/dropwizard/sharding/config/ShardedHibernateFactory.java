@@ -18,17 +18,24 @@
 package io.appform.dropwizard.sharding.config;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import io.dropwizard.db.DataSourceFactory;
 import lombok.*;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Config for shards. The number od shards is set to 2 by default. This can be changed by passing -Ddb.shards=[n]
  * on the command line.
+ * Read replicas can optionally be configured for a shard by providing them against the shard id in replicas.
+ * Shards are blacklisted automatically on errors if circuitBreaker is configured and concurrent calls on a shard are
+ * limited if bulkhead is configured. Session factories of the shards are built in parallel on startup, on up to
+ * bootstrapParallelism threads. Daos call several shards at once on a pool of fanoutThreads.
  */
 @Data
 @AllArgsConstructor
@@ -41,6 +48,34 @@ public class ShardedHibernateFactory {
     @Singular
     private List<DataSourceFactory> shards = Lists.newArrayList();
 
+    @Valid
+    @Singular
+    private Map<Integer, List<DataSourceFactory>> replicas = Maps.newHashMap();
+
+    @Valid
+    private ReplicaConfig replicaConfig;
+
     @Valid
     private BlacklistConfig blacklist;
+
+    @Valid
+    private CircuitBreakerConfig circuitBreaker;
+
+    @Valid
+    private BulkheadConfig bulkhead;
+
+    /**
+     * Number of shards whose session factories are built at the same time on startup.
+     */
+    @Min(1)
+    @Builder.Default
+    private int bootstrapParallelism = 8;
+
+    /**
+     * Number of threads shared by the daos of the bundle for calls made on several shards at once. Calls run on the
+     * calling thread when all of them are busy. Set to 0 to always run such calls one shard after the other.
+     */
+    @Min(0)
+    @Builder.Default
+    private int fanoutThreads = 16;
 }
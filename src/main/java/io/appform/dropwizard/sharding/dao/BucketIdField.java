@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.base.Preconditions;
+import io.appform.dropwizard.sharding.sharding.BucketId;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.Session;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The field of an entity annotated with {@link BucketId}, if any.
+ */
+final class BucketIdField {
+    private final Class<?> entityClass;
+    private final Field field;
+
+    private BucketIdField(Class<?> entityClass, Field field) {
+        this.entityClass = entityClass;
+        this.field = field;
+    }
+
+    static BucketIdField forEntity(Class<?> entityClass) {
+        final Field[] fields = FieldUtils.getFieldsWithAnnotation(entityClass, BucketId.class);
+        Preconditions.checkArgument(fields.length <= 1, "Only one field can be bucket id");
+        if (fields.length == 0) {
+            return new BucketIdField(entityClass, null);
+        }
+        Preconditions.checkArgument(ClassUtils.isAssignable(fields[0].getType(), Integer.class),
+                                    "Bucket id field must be an int");
+        fields[0].setAccessible(true);
+        return new BucketIdField(entityClass, fields[0]);
+    }
+
+    boolean isPresent() {
+        return null != field;
+    }
+
+    void checkPresent() {
+        Preconditions.checkState(isPresent(), "No field annotated with BucketId in " + entityClass.getSimpleName());
+    }
+
+    void set(Object entity, int bucketId) {
+        if (null == field || null == entity) {
+            return;
+        }
+        try {
+            field.set(entity, bucketId);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Error setting bucket id", e);
+        }
+    }
+
+    /**
+     * A copy of the criteria restricted to a range of buckets. The criteria passed in is left as is.
+     */
+    DetachedCriteria inRange(DetachedCriteria criteria, int fromBucket, int toBucket) {
+        return SerializationUtils.clone(criteria)
+                .add(fromBucket == toBucket
+                     ? Restrictions.eq(field.getName(), fromBucket)
+                     : Restrictions.between(field.getName(), fromBucket, toBucket));
+    }
+
+    /**
+     * Number of rows matching the criteria in each bucket that has any.
+     */
+    Map<Integer, Long> countPerBucket(Session session, DetachedCriteria criteria) {
+        @SuppressWarnings("unchecked")
+        final List<Object[]> rows = SerializationUtils.clone(criteria)
+                .getExecutableCriteria(session)
+                .setProjection(Projections.projectionList()
+                                       .add(Projections.groupProperty(field.getName()))
+                                       .add(Projections.rowCount()))
+                .list();
+        final Map<Integer, Long> counts = new TreeMap<>();
+        rows.forEach(row -> counts.put((Integer) row[0], (Long) row[1]));
+        return counts;
+    }
+}
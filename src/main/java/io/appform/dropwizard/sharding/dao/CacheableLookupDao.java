@@ -19,7 +19,10 @@ package io.appform.dropwizard.sharding.dao;
 
 import io.appform.dropwizard.sharding.caching.LookupCache;
 import io.appform.dropwizard.sharding.exceptions.DaoFwdException;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.appform.dropwizard.sharding.sharding.LookupKey;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.SessionFactory;
@@ -48,9 +51,29 @@ public class CacheableLookupDao<T> extends LookupDao<T> {
         this.cache = cache;
     }
 
+    public CacheableLookupDao(List<SessionFactory> sessionFactories,
+                              Class<T> entityClass,
+                              ShardCalculator<String> shardCalculator,
+                              LookupCache<T> cache,
+                              ReplicaManager replicaManager) {
+        super(sessionFactories, entityClass, shardCalculator, replicaManager);
+        this.cache = cache;
+    }
+
+    public CacheableLookupDao(List<SessionFactory> sessionFactories,
+                              Class<T> entityClass,
+                              ShardCalculator<String> shardCalculator,
+                              LookupCache<T> cache,
+                              ReplicaManager replicaManager,
+                              DaoMetrics daoMetrics) {
+        super(sessionFactories, entityClass, shardCalculator, replicaManager, daoMetrics);
+        this.cache = cache;
+    }
+
     /**
      * Read through an object on the basis of key (value of field annotated with {@link LookupKey}) from cache.
-     * Cache miss will be delegated to {@link LookupDao#get(String)} method.
+     * Cache miss will be delegated to {@link LookupDao#get(String)} method on the primary, so that rows from a lagging
+     * replica are not cached.
      * <b>Note:</b> Lazy loading will not work once the object is returned.
      * If you need lazy loading functionality use the alternate {@link LookupDao#get(String, Function)} method.
      * @param key The value of the key field to look for.
@@ -62,7 +85,7 @@ public class CacheableLookupDao<T> extends LookupDao<T> {
         if(cache.exists(key)) {
             return Optional.of(cache.get(key));
         }
-        T entity = super.get(key, t -> t);
+        T entity = ReadPreferences.fromPrimary(() -> super.get(key)).orElse(null);
         if(entity != null) {
             cache.put(key, entity);
         }
@@ -97,7 +120,7 @@ public class CacheableLookupDao<T> extends LookupDao<T> {
         boolean result = super.update(id, updater);
         if(result) {
             try {
-                Optional<T> updatedEntity = super.get(id);
+                Optional<T> updatedEntity = ReadPreferences.fromPrimary(() -> super.get(id));
                 updatedEntity.ifPresent(t -> cache.put(id, t));
             } catch (Exception e) {
                 throw new DaoFwdException("Error updating entity: " + id, e);
@@ -108,7 +131,7 @@ public class CacheableLookupDao<T> extends LookupDao<T> {
 
     /**
      * Read through exists check on the basis of key (value of field annotated with {@link LookupKey}) from cache.
-     * Cache miss will be delegated to {@link LookupDao#exists(String)} method.
+     * Cache miss will be delegated to {@link LookupDao#get(String)} method on the primary.
      * @param key The value of the key field to look for.
      * @return Whether the entity exists or not
      * @throws Exception if backing dao throws
@@ -118,7 +141,7 @@ public class CacheableLookupDao<T> extends LookupDao<T> {
         if(cache.exists(key)) {
             return true;
         }
-        Optional<T> entity = super.get(key);
+        Optional<T> entity = ReadPreferences.fromPrimary(() -> super.get(key));
         entity.ifPresent(t -> cache.put(key, t));
         return entity.isPresent();
     }
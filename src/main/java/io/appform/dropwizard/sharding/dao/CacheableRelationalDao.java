@@ -18,6 +18,10 @@
 package io.appform.dropwizard.sharding.dao;
 
 import io.appform.dropwizard.sharding.caching.RelationalCache;
+import io.appform.dropwizard.sharding.exceptions.DaoFwdException;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.DetachedCriteria;
@@ -27,6 +31,7 @@ import java.util.Optional;
 
 /**
  * A read/write through cache enabled {@link RelationalDao}
+ * Cache misses are read from the primary, so that rows from a lagging replica are not cached.
  */
 public class CacheableRelationalDao<T> extends RelationalDao<T> {
 
@@ -39,12 +44,34 @@ public class CacheableRelationalDao<T> extends RelationalDao<T> {
         this.cache = cache;
     }
 
+    public CacheableRelationalDao(List<SessionFactory> sessionFactories, Class<T> entityClass,
+                                  ShardCalculator<String> shardCalculator,
+                                  RelationalCache<T> cache,
+                                  ReplicaManager replicaManager) {
+        super(sessionFactories, entityClass, shardCalculator, replicaManager);
+        this.cache = cache;
+    }
+
+    public CacheableRelationalDao(List<SessionFactory> sessionFactories, Class<T> entityClass,
+                                  ShardCalculator<String> shardCalculator,
+                                  RelationalCache<T> cache,
+                                  ReplicaManager replicaManager,
+                                  DaoMetrics daoMetrics) {
+        super(sessionFactories, entityClass, shardCalculator, replicaManager, daoMetrics);
+        this.cache = cache;
+    }
+
     @Override
     public Optional<T> get(String parentKey, Object key) {
         if(cache.exists(parentKey, key)) {
             return Optional.ofNullable(cache.get(parentKey, key));
         }
-        T entity = super.get(parentKey, key, t-> t);
+        final T entity;
+        try {
+            entity = ReadPreferences.fromPrimary(() -> super.get(parentKey, key, t-> t));
+        } catch (Exception e) {
+            throw new DaoFwdException("Error reading entity: " + key, e);
+        }
         if(entity != null) {
             cache.put(parentKey, key, entity);
         }
@@ -65,7 +92,7 @@ public class CacheableRelationalDao<T> extends RelationalDao<T> {
     public List<T> select(String parentKey, DetachedCriteria criteria, int first, int numResults) throws Exception {
         List<T> result = cache.select(parentKey, first, numResults);
         if(result == null) {
-            result = super.select(parentKey, criteria, first, numResults);
+            result = ReadPreferences.fromPrimary(() -> super.select(parentKey, criteria, first, numResults));
         }
         if(result != null) {
             cache.put(parentKey, first, numResults, result);
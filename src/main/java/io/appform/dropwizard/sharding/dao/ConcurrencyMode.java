@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+/**
+ * How {@link LookupDao#updateInLock(String, java.util.function.Function)} and
+ * {@link LookupDao#lockAndGetExecutor(String)} guard against concurrent writers.
+ */
+public enum ConcurrencyMode {
+    /**
+     * The entity is read with a row lock ({@link org.hibernate.LockMode#UPGRADE_NOWAIT}). Concurrent writers fail
+     * right away.
+     */
+    PESSIMISTIC,
+    /**
+     * The entity is read without a lock and the write is checked against its {@link javax.persistence.Version}
+     * column. Writes that conflict with another writer are retried as configured in
+     * {@link io.appform.dropwizard.sharding.config.OptimisticLockConfig}. Operations on a
+     * {@link LookupDao.LockedContext} are run again on retries, so they must not have side effects outside the
+     * transaction.
+     */
+    OPTIMISTIC
+}
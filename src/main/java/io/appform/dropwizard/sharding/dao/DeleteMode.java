@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+/**
+ * How {@link LookupDao} deletes entities by key.
+ */
+public enum DeleteMode {
+    /**
+     * Entities are deleted with a single DELETE statement by key, without being loaded. This bypasses cascades,
+     * orphan removal, join table and {@code @JoinColumn} collection cleanup, {@code @SQLDelete} and {@code @Where}
+     * soft deletes, entity listeners such as {@code @PreRemove}, {@code @Version} checks and the second level cache.
+     * Only use it for entities that rely on none of these.
+     */
+    DIRECT,
+    /**
+     * Entities are loaded with a write lock and deleted through the session, so all of the above are applied. This
+     * is the default.
+     */
+    CASCADING
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.Query;
+import org.hibernate.type.Type;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Writes only the columns that an updater has changed. See {@link UpdateMode#DIRTY_COLUMNS}.
+ */
+@Slf4j
+final class DirtyColumnUpdater {
+    private static final String ID_PARAM = "id";
+
+    private DirtyColumnUpdater() {
+    }
+
+    /**
+     * Writes the properties of the updated entity that differ from the loaded state of the managed entity.
+     * The managed entity is left attached with the new state, so nothing is written for it again on flush.
+     * @param session Session the entity was loaded in
+     * @param managed Entity as loaded in this session
+     * @param updated Entity returned by the updater. Can be the managed entity itself.
+     * @return false if the update could not be done this way and needs a full update instead
+     */
+    static boolean update(Session session, Object managed, Object updated) {
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        final EntityEntry entry = sessionImplementor.getPersistenceContext().getEntry(managed);
+        if (null == entry || null == entry.getLoadedState()) {
+            return false;
+        }
+        final EntityPersister persister = entry.getPersister();
+        if (persister.isVersioned() || null == persister.getIdentifierPropertyName()) {
+            return false;
+        }
+        if (updated != managed && !persister.getIdentifierType()
+                .isEqual(entry.getId(), persister.getIdentifier(updated, sessionImplementor))) {
+            return false;
+        }
+        final Object[] loadedState = entry.getLoadedState();
+        final Object[] currentState = persister.getPropertyValues(updated);
+        final int[] dirty = persister.findDirty(currentState, loadedState, managed, sessionImplementor);
+        if (null == dirty) {
+            return true;
+        }
+        final Type[] types = persister.getPropertyTypes();
+        if (IntStream.of(dirty).anyMatch(property -> types[property].isCollectionType()
+                || types[property].isComponentType())) {
+            return false;
+        }
+        final boolean[] updateable = persister.getPropertyUpdateability();
+        final int[] columns = IntStream.of(dirty)
+                .filter(property -> updateable[property])
+                .toArray();
+        if (columns.length == 0) {
+            return true;
+        }
+        final String[] names = persister.getPropertyNames();
+        final String hql = String.format("update %2$s %1$s set %3$s where %1$s.%4$s = :%5$s",
+                                         KeyQueries.ALIAS,
+                                         persister.getEntityName(),
+                                         IntStream.of(columns)
+                                                 .mapToObj(property -> String.format(
+                                                         "%s.%s = :p%d", KeyQueries.ALIAS, names[property], property))
+                                                 .collect(Collectors.joining(", ")),
+                                         persister.getIdentifierPropertyName(),
+                                         ID_PARAM);
+        //Undo in place changes first, so that the auto flush before the query does not write the full row
+        if (updated == managed) {
+            for (int property : columns) {
+                persister.setPropertyValue(managed, property, loadedState[property]);
+            }
+        }
+        final Query<?> query = session.createQuery(hql)
+                .setParameter(ID_PARAM, entry.getId());
+        for (int property : columns) {
+            query.setParameter("p" + property, currentState[property]);
+        }
+        final int rows = query.executeUpdate();
+        log.debug("Updated {} columns in {} rows of {}", columns.length, rows, persister.getEntityName());
+
+        final Object[] newState = loadedState.clone();
+        for (int property : columns) {
+            persister.setPropertyValue(managed, property, currentState[property]);
+            newState[property] = types[property].deepCopy(currentState[property], persister.getFactory());
+        }
+        entry.postUpdate(managed, newState, entry.getVersion());
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import io.appform.dropwizard.sharding.sharding.GlobalIndex;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * An entry of a {@link GlobalIndex}. Entries are stored on the shard the indexed value hashes to.
+ * The bundle registers this entity on all shards when any of its entities has a field annotated with
+ * {@link GlobalIndex}.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "global_index_entries",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"index_name", "index_value", "lookup_key"}),
+        indexes = @Index(name = "idx_global_index_value", columnList = "index_name,index_value"))
+public class GlobalIndexEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private long id;
+
+    @Column(name = "index_name", nullable = false, length = 128)
+    private String indexName;
+
+    @Column(name = "index_value", nullable = false)
+    private String indexValue;
+
+    @Column(name = "lookup_key", nullable = false)
+    private String lookupKey;
+}
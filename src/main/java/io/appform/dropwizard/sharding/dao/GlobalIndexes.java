@@ -0,0 +1,311 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
+import io.appform.dropwizard.sharding.sharding.GlobalIndex;
+import io.appform.dropwizard.sharding.utils.ShardCalculator;
+import io.appform.dropwizard.sharding.utils.TransactionMetrics;
+import io.appform.dropwizard.sharding.utils.Transactions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains the {@link GlobalIndex} entries of an entity. The entries of a value are stored on the shard the value
+ * hashes to, so a lookup by value reads one shard for the keys and then the shards of the keys.
+ * Entries are written in their own transactions, apart from the transaction of the entity. Entries for new values are
+ * written before the entity is committed, so a failure to write them fails the write of the entity. Entries for old
+ * values are removed after the entity is committed, and a failure to remove them is only logged. An entry can
+ * therefore point to an entity that no longer has the value, and lookups check the value on the entity they load.
+ * Entries are read from the replicas of the shard when it has them, like other dao reads.
+ * Entries are added with a check for an existing entry first. When a concurrent writer adds the same entry in between,
+ * the unique constraint on the entries rejects the insert, and the entry is taken as added.
+ */
+@Slf4j
+final class GlobalIndexes {
+    private static final String ENTRY = GlobalIndexEntry.class.getName();
+    private static final String LOOKUP = "select e.lookupKey from " + ENTRY
+            + " e where e.indexName = :indexName and e.indexValue = :indexValue";
+    private static final String EXISTS = "select 1 from " + ENTRY
+            + " e where e.indexName = :indexName and e.indexValue = :indexValue and e.lookupKey = :lookupKey";
+    private static final String DELETE = "delete from " + ENTRY
+            + " e where e.indexName = :indexName and e.indexValue = :indexValue and e.lookupKey = :lookupKey";
+
+    private final List<SessionFactory> sessionFactories;
+    private final ReplicaManager replicaManager;
+    private final ShardCalculator<String> shardCalculator;
+    private final TransactionMetrics transactionMetrics;
+    private final String entityName;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    GlobalIndexes(List<SessionFactory> sessionFactories,
+                  ReplicaManager replicaManager,
+                  Class<?> entityClass,
+                  ShardCalculator<String> shardCalculator,
+                  TransactionMetrics transactionMetrics) {
+        this.sessionFactories = sessionFactories;
+        this.replicaManager = replicaManager;
+        this.shardCalculator = shardCalculator;
+        this.transactionMetrics = transactionMetrics;
+        this.entityName = entityClass.getSimpleName();
+        for (Field field : FieldUtils.getFieldsWithAnnotation(entityClass, GlobalIndex.class)) {
+            final String name = Strings.isNullOrEmpty(field.getAnnotation(GlobalIndex.class).name())
+                    ? field.getName()
+                    : field.getAnnotation(GlobalIndex.class).name();
+            Preconditions.checkArgument(!fields.containsKey(name), "Duplicate global index " + name);
+            field.setAccessible(true);
+            fields.put(name, field);
+        }
+    }
+
+    boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Keys of the entities indexed under the value. The keys can include entities that no longer have the value.
+     */
+    List<String> lookup(String index, Object value) {
+        Preconditions.checkArgument(fields.containsKey(index),
+                                    "No global index " + index + " on " + entityName);
+        final String indexValue = String.valueOf(value);
+        final int shardId = shardCalculator.shardId(indexValue);
+        return shardCalculator.getShardManager().guard(shardId, () -> replicaManager.read(shardId, lease -> {
+            final SessionFactory sessionFactory = lease.isPrimary()
+                    ? sessionFactories.get(shardId)
+                    : replicaManager.replicas(shardId).get(lease.getReplicaId());
+            return Transactions.execute(transactionMetrics, sessionFactory, true, ignored -> sessionFactory
+                    .getCurrentSession()
+                    .createQuery(LOOKUP, String.class)
+                    .setParameter("indexName", indexName(index))
+                    .setParameter("indexValue", indexValue)
+                    .list(), indexValue);
+        }));
+    }
+
+    /**
+     * Whether the entity currently has the value in the indexed field.
+     */
+    boolean matches(String index, Object entity, Object value) {
+        return Objects.equals(String.valueOf(value), values(entity).get(index));
+    }
+
+    /**
+     * Current values of the indexed fields of the entity by index name. Fields set to null are not indexed.
+     */
+    Map<String, String> values(Object entity) {
+        if (null == entity || fields.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> values = new LinkedHashMap<>();
+        fields.forEach((name, field) -> {
+            try {
+                final Object value = field.get(entity);
+                if (null != value) {
+                    values.put(name, value.toString());
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Error reading indexed field " + name, e);
+            }
+        });
+        return values;
+    }
+
+    void add(String key, Map<String, String> values) {
+        values.entrySet()
+                .stream()
+                .collect(Collectors.groupingBy(value -> shardCalculator.shardId(value.getValue())))
+                .forEach((shardId, shardValues) -> {
+                    try {
+                        write(shardId, session -> {
+                            shardValues.forEach(value -> addEntry(session, key, value));
+                            return null;
+                        });
+                    } catch (RuntimeException e) {
+                        if (!isDuplicate(e)) {
+                            throw e;
+                        }
+                        //A concurrent writer added one of the entries. The others are added one by one.
+                        shardValues.forEach(value -> addOne(shardId, key, value));
+                    }
+                });
+    }
+
+    /**
+     * Removes the entries of values the entity no longer has, once the change of the entity is committed. Failures
+     * are logged, as the entity has been written and entries left behind are filtered out by lookups.
+     */
+    void removeStale(String key, Map<String, String> values) {
+        try {
+            remove(key, values);
+        } catch (RuntimeException e) {
+            log.warn("Error removing stale global index entries {} of {} {}", values, entityName, key, e);
+        }
+    }
+
+    void remove(String key, Map<String, String> values) {
+        values.entrySet()
+                .stream()
+                .collect(Collectors.groupingBy(value -> shardCalculator.shardId(value.getValue())))
+                .forEach((shardId, shardValues) -> write(shardId, session -> {
+                    shardValues.forEach(value -> session.createQuery(DELETE)
+                            .setParameter("indexName", indexName(value.getKey()))
+                            .setParameter("indexValue", value.getValue())
+                            .setParameter("lookupKey", key)
+                            .executeUpdate());
+                    return null;
+                }));
+    }
+
+    /**
+     * Tracks the indexed values of an entity across an update. The values before the update are recorded before the
+     * updater gets the entity, as updaters are free to change the entity in place.
+     */
+    Change change(String key) {
+        return new Change(key);
+    }
+
+    private void addOne(int shardId, String key, Map.Entry<String, String> value) {
+        try {
+            write(shardId, session -> {
+                addEntry(session, key, value);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            if (!isDuplicate(e)) {
+                throw e;
+            }
+            log.debug("Entry for {} of {} was added by another writer", value.getKey(), key);
+        }
+    }
+
+    private void addEntry(Session session, String key, Map.Entry<String, String> value) {
+        final boolean exists = !session.createQuery(EXISTS, Integer.class)
+                .setParameter("indexName", indexName(value.getKey()))
+                .setParameter("indexValue", value.getValue())
+                .setParameter("lookupKey", key)
+                .setMaxResults(1)
+                .list()
+                .isEmpty();
+        if (!exists) {
+            session.save(GlobalIndexEntry.builder()
+                                 .indexName(indexName(value.getKey()))
+                                 .indexValue(value.getValue())
+                                 .lookupKey(key)
+                                 .build());
+        }
+    }
+
+    private static boolean isDuplicate(Throwable t) {
+        return Throwables.getCausalChain(t)
+                .stream()
+                .anyMatch(cause -> cause instanceof ConstraintViolationException);
+    }
+
+    private String indexName(String index) {
+        return entityName + "." + index;
+    }
+
+    /**
+     * Writes entries in a transaction of their own. Entries for new values are written while the transaction of the
+     * entity is open. When that transaction is on the same shard, its session is bound again once the entries are
+     * committed, and the shard is not guarded again as the entity's write already holds a slot on it.
+     */
+    private void write(int shardId, Function<Session, Void> writer) {
+        final SessionFactory sessionFactory = sessionFactories.get(shardId);
+        final Session outer = ManagedSessionContext.hasBind(sessionFactory)
+                ? sessionFactory.getCurrentSession()
+                : null;
+        final Supplier<Void> call = () -> Transactions.execute(transactionMetrics, sessionFactory, false,
+                ignored -> writer.apply(sessionFactory.getCurrentSession()), shardId);
+        try {
+            if (null == outer) {
+                shardCalculator.getShardManager().guard(shardId, call);
+            } else {
+                call.get();
+            }
+        } finally {
+            if (null != outer) {
+                ManagedSessionContext.bind(outer);
+            }
+        }
+        ConsistencySession.recordCommit(shardId);
+    }
+
+    final class Change {
+        private final String key;
+        private Map<String, String> before = Collections.emptyMap();
+        private Map<String, String> after = Collections.emptyMap();
+
+        private Change(String key) {
+            this.key = key;
+        }
+
+        void before(Object entity) {
+            before = values(entity);
+            after = before;
+        }
+
+        void after(Object entity) {
+            after = values(entity);
+        }
+
+        /**
+         * Adds entries for the values the entity did not have before. Called before the entity is committed, so that
+         * the entity is not written if the entries can not be.
+         */
+        void addNew() {
+            if (fields.isEmpty()) {
+                return;
+            }
+            final Map<String, String> added = new LinkedHashMap<>(after);
+            added.entrySet().removeAll(before.entrySet());
+            add(key, added);
+        }
+
+        /**
+         * Removes the entries of values the entity no longer has. Called once the entity is committed.
+         */
+        void removeStale() {
+            if (fields.isEmpty()) {
+                return;
+            }
+            final Map<String, String> removed = new LinkedHashMap<>(before);
+            removed.entrySet().removeAll(after.entrySet());
+            GlobalIndexes.this.removeStale(key, removed);
+        }
+    }
+}
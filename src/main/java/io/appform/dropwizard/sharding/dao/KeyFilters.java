@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.appform.dropwizard.sharding.config.KeyFilterConfig;
+import io.appform.dropwizard.sharding.utils.KeyFilterMetrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A Bloom filter of the keys in each shard. A key the filter of its shard has not seen does not exist, so lookups for
+ * it can skip the database. Filters are built by scanning the keys of a shard and keys are added as they are saved.
+ * Deleted keys stay in the filter and only add to the false positives until the filter is built again.
+ * Lookups go to the database for a shard until its filter has been built.
+ * Keys inserted by other processes are not in the filter. Unless the config marks this process as the only writer,
+ * a key is only ruled out by a filter built within {@link KeyFilterConfig#getMaxFilterAgeMs()}, which is off by
+ * default.
+ */
+final class KeyFilters {
+    private final KeyFilterConfig config;
+    private final KeyFilterMetrics metrics;
+    private final AtomicReferenceArray<BloomFilter<CharSequence>> filters;
+    private final AtomicReferenceArray<BloomFilter<CharSequence>> building;
+    private final AtomicLongArray builtAt;
+    private final Object[] buildLocks;
+
+    KeyFilters(int numShards, KeyFilterConfig config, KeyFilterMetrics metrics) {
+        Preconditions.checkArgument(config.getFalsePositiveRate() > 0 && config.getFalsePositiveRate() < 1,
+                                    "False positive rate must be between 0 and 1");
+        this.config = config;
+        this.metrics = metrics;
+        this.filters = new AtomicReferenceArray<>(numShards);
+        this.building = new AtomicReferenceArray<>(numShards);
+        this.builtAt = new AtomicLongArray(numShards);
+        this.buildLocks = IntStream.range(0, numShards).mapToObj(shardId -> new Object()).toArray();
+    }
+
+    boolean mightContain(int shardId, String key) {
+        final BloomFilter<CharSequence> filter = filters.get(shardId);
+        if (null == filter) {
+            return true;
+        }
+        metrics.getChecks().mark();
+        if (filter.mightContain(key) || !trusted(shardId)) {
+            return true;
+        }
+        metrics.getSkipped().mark();
+        return false;
+    }
+
+    /**
+     * Adds a key once its entity is committed. A filter being built gets the key as well, as its scan may have
+     * started before the commit.
+     */
+    void put(int shardId, String key) {
+        //The filter being built is read first. If it is already gone, it has been made the current filter.
+        final BloomFilter<CharSequence> next = building.get(shardId);
+        if (null != next) {
+            next.put(key);
+        }
+        final BloomFilter<CharSequence> filter = filters.get(shardId);
+        if (null != filter) {
+            filter.put(key);
+        }
+    }
+
+    /**
+     * Builds the filter of a shard from the keys in it and replaces the current filter once done.
+     * @param keys Opens a stream over the keys in the shard
+     */
+    void build(int shardId, Supplier<Stream<String>> keys) {
+        synchronized (buildLocks[shardId]) {
+            final BloomFilter<CharSequence> next = BloomFilter.create(Funnels.unencodedCharsFunnel(),
+                                                                      config.getExpectedKeysPerShard(),
+                                                                      config.getFalsePositiveRate());
+            building.set(shardId, next);
+            //Keys inserted by other writers after the scan starts are not in the filter, so its age counts from here
+            final long scanStart = System.currentTimeMillis();
+            try (Stream<String> shardKeys = keys.get()) {
+                shardKeys.forEach(next::put);
+                filters.set(shardId, next);
+                builtAt.set(shardId, scanStart);
+            } finally {
+                building.set(shardId, null);
+            }
+        }
+    }
+
+    private boolean trusted(int shardId) {
+        return config.isSingleWriter()
+                || (config.getMaxFilterAgeMs() > 0
+                    && System.currentTimeMillis() - builtAt.get(shardId) <= config.getMaxFilterAgeMs());
+    }
+
+    int getScanFetchSize() {
+        return config.getScanFetchSize();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.util.concurrent.Striped;
+import io.appform.dropwizard.sharding.config.KeyLockConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Striped in process locks on keys. See {@link KeyLockConfig}.
+ */
+@Slf4j
+final class KeyLocks {
+
+    private final Striped<Lock> locks;
+    private final long maxWaitMs;
+
+    KeyLocks(KeyLockConfig config) {
+        this.locks = Striped.lock(config.getStripes());
+        this.maxWaitMs = config.getMaxWaitMs();
+    }
+
+    /**
+     * Runs a call while holding the lock for the key. If the lock cannot be had in time, the call is run without it
+     * and contends at the database as it would without local locks.
+     */
+    <U> U execute(String key, Supplier<U> call) {
+        final Lock lock = locks.get(key);
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for lock on key: " + key, e);
+        }
+        if (!acquired) {
+            log.debug("Timed out waiting for local lock on key {}", key);
+        }
+        try {
+            return call.get();
+        } finally {
+            if (acquired) {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import lombok.Getter;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.query.Query;
+
+import java.util.Collection;
+
+/**
+ * HQL for looking up, checking and deleting entities by their key field. Existence checks only select the key, so
+ * entities are not hydrated for them. The queries are built once per dao, so
+ * Hibernate translates each of them once and serves later calls from its query plan cache. Criteria queries, on the
+ * other hand, are translated again on every call.
+ */
+@Getter
+final class KeyQueries {
+    static final String ALIAS = "e";
+    private static final String KEY_PARAM = "key";
+    private static final String KEYS_PARAM = "keys";
+
+    private final String lookup;
+    private final String lookupAll;
+    private final String exists;
+    private final String existingKeys;
+    private final String deleteByKey;
+    private final String deleteAll;
+
+    KeyQueries(Class<?> entityClass, String keyProperty) {
+        final String entity = entityClass.getName();
+        this.lookup = String.format("select %1$s from %2$s %1$s where %1$s.%3$s = :%4$s",
+                                    ALIAS, entity, keyProperty, KEY_PARAM);
+        this.lookupAll = String.format("select %1$s from %2$s %1$s where %1$s.%3$s in (:%4$s)",
+                                       ALIAS, entity, keyProperty, KEYS_PARAM);
+        this.exists = String.format("select 1 from %2$s %1$s where %1$s.%3$s = :%4$s",
+                                    ALIAS, entity, keyProperty, KEY_PARAM);
+        this.existingKeys = String.format("select %1$s.%3$s from %2$s %1$s where %1$s.%3$s in (:%4$s)",
+                                          ALIAS, entity, keyProperty, KEYS_PARAM);
+        this.deleteByKey = String.format("delete from %2$s %1$s where %1$s.%3$s = :%4$s",
+                                         ALIAS, entity, keyProperty, KEY_PARAM);
+        this.deleteAll = String.format("delete from %2$s %1$s where %1$s.%3$s in (:%4$s)",
+                                       ALIAS, entity, keyProperty, KEYS_PARAM);
+    }
+
+    <T> Query<T> lookup(SharedSessionContract session, Class<T> entityClass, Object key) {
+        return session.createQuery(lookup, entityClass)
+                .setParameter(KEY_PARAM, key);
+    }
+
+    <T> Query<T> lookupAll(SharedSessionContract session, Class<T> entityClass, Collection<?> keys) {
+        return session.createQuery(lookupAll, entityClass)
+                .setParameterList(KEYS_PARAM, keys);
+    }
+
+    Query<Integer> exists(SharedSessionContract session, Object key) {
+        return session.createQuery(exists, Integer.class)
+                .setParameter(KEY_PARAM, key)
+                .setMaxResults(1);
+    }
+
+    <K> Query<K> existingKeys(SharedSessionContract session, Class<K> keyType, Collection<?> keys) {
+        return session.createQuery(existingKeys, keyType)
+                .setParameterList(KEYS_PARAM, keys);
+    }
+
+    Query<?> deleteByKey(SharedSessionContract session, Object key) {
+        return session.createQuery(deleteByKey)
+                .setParameter(KEY_PARAM, key);
+    }
+
+    Query<?> deleteAll(SharedSessionContract session, Collection<?> keys) {
+        return session.createQuery(deleteAll)
+                .setParameterList(KEYS_PARAM, keys);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Preconditions;
+import io.dropwizard.jackson.Jackson;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Builds keyset (seek) queries on a sort field and the id of an entity. A page continues after the (sort value, id)
+ * of the last entity of the previous page, so every page costs the same however deep it is. The position is passed
+ * around as an opaque token. Sort values are written to the token with the mapper of dropwizard, and dates and times as
+ * ISO strings so that they keep their full precision.
+ */
+final class KeysetCursor {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final Field sortField;
+    private final Field idField;
+    private final boolean ascending;
+
+    KeysetCursor(Class<?> entityClass, String sortProperty, Field idField, boolean ascending) {
+        this.sortField = FieldUtils.getField(entityClass, sortProperty, true);
+        Preconditions.checkArgument(null != sortField, "Unknown sort field: " + sortProperty);
+        this.idField = idField;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Returns a copy of the criteria restricted to the rows after the token and ordered by the sort field and id.
+     * The criteria passed in is not changed.
+     */
+    DetachedCriteria criteria(DetachedCriteria criteria, String afterToken) {
+        final DetachedCriteria pageCriteria = SerializationUtils.clone(criteria);
+        if (null != afterToken) {
+            pageCriteria.add(after(afterToken));
+        }
+        if (!sortField.equals(idField)) {
+            pageCriteria.addOrder(order(sortField.getName()));
+        }
+        return pageCriteria.addOrder(order(idField.getName()));
+    }
+
+    /**
+     * Returns the page for the rows read with a limit one more than the page size
+     */
+    <T> KeysetPage<T> page(List<T> rows, int pageSize) {
+        if (rows.size() <= pageSize) {
+            return new KeysetPage<>(rows, null);
+        }
+        final List<T> items = new ArrayList<>(rows.subList(0, pageSize));
+        return new KeysetPage<>(items, token(items.get(pageSize - 1)));
+    }
+
+    private Criterion after(String token) {
+        final Object[] position = position(token);
+        final Object id = position[1];
+        if (sortField.equals(idField)) {
+            return greater(idField.getName(), id);
+        }
+        final String sortProperty = sortField.getName();
+        final Object sortValue = position[0];
+        //The redundant bound on the sort field lets the database use a range scan on an index on (sort field, id)
+        return Restrictions.and(ascending ? Restrictions.ge(sortProperty, sortValue)
+                                          : Restrictions.le(sortProperty, sortValue),
+                                Restrictions.or(greater(sortProperty, sortValue),
+                                                Restrictions.and(Restrictions.eq(sortProperty, sortValue),
+                                                                 greater(idField.getName(), id))));
+    }
+
+    private Criterion greater(String property, Object value) {
+        return ascending ? Restrictions.gt(property, value) : Restrictions.lt(property, value);
+    }
+
+    private Order order(String property) {
+        return ascending ? Order.asc(property) : Order.desc(property);
+    }
+
+    private String token(Object entity) {
+        try {
+            final byte[] json = MAPPER.writeValueAsBytes(new Object[]{encode(sortField.get(entity)),
+                                                                      encode(idField.get(entity))});
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch (IllegalAccessException | IOException e) {
+            throw new RuntimeException("Error creating page token", e);
+        }
+    }
+
+    private Object[] position(String token) {
+        try {
+            final JsonNode position = MAPPER.readTree(new String(Base64.getUrlDecoder().decode(token),
+                                                                 StandardCharsets.UTF_8));
+            Preconditions.checkArgument(position.isArray() && position.size() == 2, "Invalid page token");
+            return new Object[]{decode(position.get(0), sortField.getType()),
+                                decode(position.get(1), idField.getType())};
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token: " + token, e);
+        }
+    }
+
+    /**
+     * Dates are written as instants, as the {@link Timestamp} values loaded by hibernate carry nanoseconds that a date
+     * written as epoch millis would drop. The next page would then repeat rows.
+     */
+    private static Object encode(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toInstant();
+        }
+        if (value instanceof Date) {
+            return Instant.ofEpochMilli(((Date) value).getTime());
+        }
+        return value;
+    }
+
+    private static Object decode(JsonNode value, Class<?> type) throws IOException {
+        if (java.sql.Date.class.isAssignableFrom(type)) {
+            return new java.sql.Date(MAPPER.treeToValue(value, Instant.class).toEpochMilli());
+        }
+        if (Date.class.isAssignableFrom(type)) {
+            return Timestamp.from(MAPPER.treeToValue(value, Instant.class));
+        }
+        return MAPPER.treeToValue(value, type);
+    }
+}
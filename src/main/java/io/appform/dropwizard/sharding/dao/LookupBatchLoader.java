@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.appform.dropwizard.sharding.config.BatchLoaderConfig;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReadPreference;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces concurrent gets for single keys into one IN query per shard, using {@link LookupDao#get(List)}.
+ * A get waits at most {@link BatchLoaderConfig#getMaxDelayMicros()} for other gets on the same shard.
+ * Concurrent gets for the same key in a batch receive the same entity instance.
+ * Gets are only batched with gets made under the same {@link ReadPreference}. Batches are read with the strictest
+ * {@link ConsistencySession} of their callers: the replica read from has to have caught up with the latest write any of
+ * them has made on the shard.
+ * Register the loader with the environment lifecycle, so that pending batches are sent on shutdown.
+ */
+@Slf4j
+public class LookupBatchLoader<T> implements Managed {
+
+    @Value
+    private static class BatchKey {
+        int shardId;
+        ReadPreference readPreference;
+    }
+
+    private final class Batch {
+        private final BatchKey batchKey;
+        private final Map<String, List<CompletableFuture<Optional<T>>>> waiting = new LinkedHashMap<>();
+        private ScheduledFuture<?> timer;
+        private long lastWrite = -1;
+
+        private Batch(BatchKey batchKey) {
+            this.batchKey = batchKey;
+        }
+
+        private void addCaller(ConsistencySession session) {
+            if (null != session) {
+                session.lastWrite(batchKey.getShardId())
+                        .ifPresent(position -> lastWrite = Math.max(lastWrite, position));
+            }
+        }
+
+        /**
+         * A session with the latest write any of the callers has made on the shard, or null if none of them has
+         */
+        private ConsistencySession session() {
+            if (lastWrite < 0) {
+                return null;
+            }
+            final ConsistencySession session = new ConsistencySession();
+            session.recordWrite(batchKey.getShardId(), lastWrite);
+            return session;
+        }
+    }
+
+    private final LookupDao<T> dao;
+    private final BatchLoaderConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<BatchKey, Batch> pending = new ConcurrentHashMap<>();
+
+    public LookupBatchLoader(LookupDao<T> dao, BatchLoaderConfig config) {
+        this.dao = dao;
+        this.config = config;
+        final ScheduledThreadPoolExecutor executor
+                = new ScheduledThreadPoolExecutor(config.getThreads(),
+                                                  new ThreadFactoryBuilder()
+                                                          .setNameFormat("lookup-batch-loader-%d")
+                                                          .setDaemon(true)
+                                                          .build());
+        //Timers of batches that fill up are cancelled, drop them right away
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Get an object on the basis of key in a batch with other gets on the same shard.
+     * @param key The value of the key field to look for.
+     * @return Future that completes with the entity, or empty if it was not found
+     */
+    public CompletableFuture<Optional<T>> load(String key) {
+        final BatchKey batchKey = new BatchKey(dao.getShardCalculator().shardId(key), ReadPreferences.current());
+        final ConsistencySession session = ConsistencySession.current();
+        final CompletableFuture<Optional<T>> result = new CompletableFuture<>();
+        final List<Batch> full = new ArrayList<>(1);
+        pending.compute(batchKey, (id, batch) -> {
+            final Batch current = null == batch ? newBatch(id) : batch;
+            current.waiting.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+            current.addCaller(session);
+            if (current.waiting.size() >= config.getMaxBatchSize()) {
+                full.add(current);
+                return null;
+            }
+            return current;
+        });
+        if (!full.isEmpty()) {
+            full.get(0).timer.cancel(false);
+            send(full.get(0));
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #load(String)}, but waits for the batch to be loaded.
+     * @param key The value of the key field to look for.
+     * @return The entity, or empty if it was not found
+     */
+    public Optional<T> get(String key) {
+        try {
+            return load(key).join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void start() {
+        //Nothing to do here
+    }
+
+    /**
+     * Sends the batches that are waiting. The loader cannot be used after this.
+     */
+    @Override
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    private Batch newBatch(BatchKey batchKey) {
+        final Batch batch = new Batch(batchKey);
+        batch.timer = scheduler.schedule(() -> {
+            if (pending.remove(batchKey, batch)) {
+                send(batch);
+            }
+        }, config.getMaxDelayMicros(), TimeUnit.MICROSECONDS);
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        try {
+            //Batches are sent from scheduler threads, so the context of the callers is set up again here
+            final List<String> keys = new ArrayList<>(batch.waiting.keySet());
+            final ConsistencySession session = batch.session();
+            final List<T> entities = ReadPreferences.withPreference(
+                    batch.batchKey.getReadPreference(),
+                    () -> null == session ? dao.get(keys) : session.execute(() -> dao.get(keys)));
+            final Map<String, T> found = entities
+                    .stream()
+                    .collect(Collectors.toMap(this::key, Function.identity(), (first, second) -> first));
+            batch.waiting.forEach((key, futures) -> {
+                final Optional<T> entity = Optional.ofNullable(found.get(key));
+                futures.forEach(future -> future.complete(entity));
+            });
+        } catch (Exception e) {
+            log.error("Error loading batch of {} keys from shard {}", batch.waiting.size(), batch.batchKey.getShardId(), e);
+            batch.waiting.values()
+                    .forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+        }
+    }
+
+    private String key(T entity) {
+        try {
+            return dao.getKeyField().get(entity).toString();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
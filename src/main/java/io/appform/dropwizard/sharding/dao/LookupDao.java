@@ -19,34 +19,55 @@ package io.appform.dropwizard.sharding.dao;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import io.appform.dropwizard.sharding.config.KeyFilterConfig;
+import io.appform.dropwizard.sharding.config.KeyLockConfig;
+import io.appform.dropwizard.sharding.config.OptimisticLockConfig;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.appform.dropwizard.sharding.sharding.LookupKey;
 import io.appform.dropwizard.sharding.sharding.ShardManager;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
+import io.appform.dropwizard.sharding.utils.KeyFilterMetrics;
+import io.appform.dropwizard.sharding.utils.OptimisticLockMetrics;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
 import io.appform.dropwizard.sharding.utils.TransactionHandler;
+import io.appform.dropwizard.sharding.utils.TransactionMetrics;
 import io.appform.dropwizard.sharding.utils.Transactions;
 import io.dropwizard.hibernate.AbstractDAO;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.hibernate.LockMode;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Restrictions;
 import org.hibernate.query.Query;
 
+import javax.persistence.LockModeType;
+import javax.persistence.Version;
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * A dao to manage lookup and top level elements in the system. Can save and retrieve an object (tree) from any shard.
@@ -54,6 +75,8 @@ import java.util.stream.Collectors;
  * - The element must have only one String key for lookup.
  * - The key needs to be annotated with {@link LookupKey}
  * The entity can be retrieved from any shard using the key.
+ * Reads are sent to the read replicas of the shard if available. Use {@link ReadPreferences#fromPrimary} to force
+ * reads to the primary.
  */
 @Slf4j
 public class LookupDao<T> implements ShardedDao<T> {
@@ -79,20 +102,55 @@ public class LookupDao<T> implements ShardedDao<T> {
             return getLocked(lookupKey, LockMode.READ);
         }
 
+        /**
+         * Get an element from the shard on a session that is not bound to the current context.
+         * @param session Session to read on
+         * @param lookupKey  Id of the object
+         * @return Extracted element or null if not found.
+         */
+        T get(Session session, String lookupKey) {
+            return uniqueResult(keyQueries.lookup(session, entityClass, lookupKey));
+        }
+
+        T get(StatelessSession session, String lookupKey) {
+            return uniqueResult(keyQueries.lookup(session, entityClass, lookupKey));
+        }
+
+        boolean exists(Session session, String lookupKey) {
+            return null != keyQueries.exists(session, lookupKey).uniqueResult();
+        }
+
+        List<String> existingKeys(Session session, Collection<String> lookupKeys) {
+            return keyQueries.existingKeys(session, String.class, lookupKeys).list();
+        }
+
         T getLockedForWrite(String lookupKey) {
             return getLocked(lookupKey, LockMode.UPGRADE_NOWAIT);
         }
 
+        /**
+         * Get an element without a row lock. Its version is incremented on commit, so that the transaction fails if
+         * another writer has changed the element in the meantime.
+         */
+        T getForOptimisticWrite(String lookupKey) {
+            final T entity = getLocked(lookupKey, LockMode.READ);
+            if (null != entity) {
+                currentSession().lock(entity, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            }
+            return entity;
+        }
+
         /**
          * Get an element from the shard.
          * @param lookupKey  Id of the object
          * @return Extracted element or null if not found.
          */
         T getLocked(String lookupKey, LockMode lockMode) {
-            return uniqueResult(currentSession()
-                    .createCriteria(entityClass)
-                    .add(Restrictions.eq(keyField.getName(), lookupKey))
-                    .setLockMode(lockMode));
+            final Query<T> query = keyQueries.lookup(currentSession(), entityClass, lookupKey);
+            if (lockMode != LockMode.READ) {
+                query.setLockMode(KeyQueries.ALIAS, lockMode);
+            }
+            return uniqueResult(query);
         }
 
         /**
@@ -104,11 +162,26 @@ public class LookupDao<T> implements ShardedDao<T> {
             return persist(entity);
         }
 
-        void update(T entity) {
-            currentSession().evict(entity); //Detach .. otherwise update is a no-op
+        void update(T oldEntity, T entity) {
+            if (null != oldEntity
+                    && updateMode == UpdateMode.DIRTY_COLUMNS
+                    && DirtyColumnUpdater.update(currentSession(), oldEntity, entity)) {
+                return;
+            }
+            currentSession().evict(null != oldEntity ? oldEntity : entity); //Detach .. otherwise update is a no-op
             currentSession().update(entity);
         }
 
+        /**
+         * Detaches an entity the updater did not return. Entities are loaded modifiable for
+         * {@link UpdateMode#DIRTY_COLUMNS} updates, and changes made to them in place must not be written on flush.
+         */
+        void discard(T entity) {
+            if (null != entity && updateMode == UpdateMode.DIRTY_COLUMNS) {
+                currentSession().evict(entity);
+            }
+        }
+
         /**
          * Run a query inside this shard and return the matching list.
          * @param criteria selection criteria to be applied.
@@ -118,16 +191,41 @@ public class LookupDao<T> implements ShardedDao<T> {
             return list(criteria.getExecutableCriteria(currentSession()));
         }
 
+        List<T> select(Session session, DetachedCriteria criteria) {
+            return list(criteria.getExecutableCriteria(session));
+        }
+
+        List<T> getAll(Collection<String> lookupKeys) {
+            return list(keyQueries.lookupAll(currentSession(), entityClass, lookupKeys));
+        }
+
+        List<T> getAll(StatelessSession session, Collection<String> lookupKeys) {
+            return list(keyQueries.lookupAll(session, entityClass, lookupKeys));
+        }
+
         long count(DetachedCriteria criteria) {
             return  (long)criteria.getExecutableCriteria(currentSession())
                     .setProjection(Projections.rowCount())
                     .uniqueResult();
         }
 
+        /**
+         * Reads an entity again after a query has changed its row. The entity read before the query is detached.
+         */
+        T reload(String lookupKey, T entity) {
+            if (null != entity) {
+                currentSession().evict(entity);
+            }
+            return get(lookupKey);
+        }
+
         /**
          * Delete an object
          */
         boolean delete(String id) {
+            if (deleteMode == DeleteMode.DIRECT) {
+                return keyQueries.deleteByKey(currentSession(), id).executeUpdate() > 0;
+            }
             return Optional.ofNullable(getLocked(id, LockMode.UPGRADE_NOWAIT))
                         .map(object -> {
                             currentSession().delete(object);
@@ -137,6 +235,26 @@ public class LookupDao<T> implements ShardedDao<T> {
 
         }
 
+        /**
+         * Delete objects in chunks of {@link #DELETE_BATCH_SIZE} keys
+         * @return Number of objects deleted
+         */
+        int deleteAll(List<String> ids) {
+            int deleted = 0;
+            for (List<String> chunk : Lists.partition(ids, DELETE_BATCH_SIZE)) {
+                if (deleteMode == DeleteMode.DIRECT) {
+                    deleted += keyQueries.deleteAll(currentSession(), chunk).executeUpdate();
+                    continue;
+                }
+                final List<T> entities = keyQueries.lookupAll(currentSession(), entityClass, chunk)
+                        .setLockMode(KeyQueries.ALIAS, LockMode.UPGRADE_NOWAIT)
+                        .list();
+                entities.forEach(currentSession()::delete);
+                deleted += entities.size();
+            }
+            return deleted;
+        }
+
         public int update(final UpdateOperationMeta updateOperationMeta) {
             Query query = currentSession().createNamedQuery(updateOperationMeta.getQueryName());
             updateOperationMeta.getParams().forEach(query::setParameter);
@@ -144,12 +262,54 @@ public class LookupDao<T> implements ShardedDao<T> {
         }
     }
 
+    private static final int DELETE_BATCH_SIZE = 500;
+
     private List<LookupDaoPriv> daos;
+    private List<List<LookupDaoPriv>> replicaDaos;
+    private final ReplicaManager replicaManager;
+    private final TransactionMetrics transactionMetrics;
+    private final OptimisticLockMetrics optimisticLockMetrics;
+    private final KeyFilterMetrics keyFilterMetrics;
     private final Class<T> entityClass;
 
     @Getter
     private final ShardCalculator<String> shardCalculator;
     private final Field keyField;
+    private final KeyQueries keyQueries;
+    /**
+     * Read mode for get, multi-key get and scatterGather without handlers. See {@link ReadMode}.
+     */
+    @Getter
+    @Setter
+    private volatile ReadMode readMode = ReadMode.SESSION;
+    /**
+     * How entities are deleted by key. Defaults to {@link DeleteMode#CASCADING}. See {@link DeleteMode}.
+     */
+    @Getter
+    @Setter
+    private volatile DeleteMode deleteMode = DeleteMode.CASCADING;
+    /**
+     * How entities returned by updaters are written. See {@link UpdateMode}.
+     */
+    @Getter
+    @Setter
+    private volatile UpdateMode updateMode = UpdateMode.FULL;
+    /**
+     * How updates in lock guard against concurrent writers. See {@link ConcurrencyMode}.
+     */
+    @Getter
+    private volatile ConcurrencyMode concurrencyMode = ConcurrencyMode.PESSIMISTIC;
+    /**
+     * Retries for updates in {@link ConcurrencyMode#OPTIMISTIC} mode
+     */
+    @Getter
+    @Setter
+    private volatile OptimisticLockConfig optimisticLockConfig = new OptimisticLockConfig();
+    private final boolean versioned;
+    private volatile KeyLocks keyLocks;
+    private final GlobalIndexes globalIndexes;
+    private final BucketIdField bucketIdField;
+    private volatile KeyFilters keyFilters;
 
     /**
      * Creates a new sharded DAO. The number of managed shards and bucketing is controlled by the {@link ShardManager}.
@@ -161,7 +321,49 @@ public class LookupDao<T> implements ShardedDao<T> {
             List<SessionFactory> sessionFactories,
             Class<T> entityClass,
             ShardCalculator<String> shardCalculator) {
+        this(sessionFactories, entityClass, shardCalculator, ReplicaManager.noReplicas());
+    }
+
+    /**
+     * Creates a new sharded DAO that sends reads to read replicas of the shards when available.
+     *
+     * @param sessionFactories a session provider for each shard
+     * @param shardCalculator calculator for shards
+     * @param replicaManager Read replicas for the shards
+     */
+    public LookupDao(
+            List<SessionFactory> sessionFactories,
+            Class<T> entityClass,
+            ShardCalculator<String> shardCalculator,
+            ReplicaManager replicaManager) {
+        this(sessionFactories, entityClass, shardCalculator, replicaManager, DaoMetrics.unregistered());
+    }
+
+    /**
+     * Creates a new sharded DAO that reports its metrics to the given bundle metrics.
+     *
+     * @param sessionFactories a session provider for each shard
+     * @param shardCalculator calculator for shards
+     * @param replicaManager Read replicas for the shards
+     * @param daoMetrics Metrics of the bundle the DAO belongs to
+     */
+    public LookupDao(
+            List<SessionFactory> sessionFactories,
+            Class<T> entityClass,
+            ShardCalculator<String> shardCalculator,
+            ReplicaManager replicaManager,
+            DaoMetrics daoMetrics) {
         this.daos = sessionFactories.stream().map(LookupDaoPriv::new).collect(Collectors.toList());
+        this.replicaDaos = IntStream.range(0, sessionFactories.size())
+                .mapToObj(shardId -> replicaManager.replicas(shardId)
+                        .stream()
+                        .map(LookupDaoPriv::new)
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        this.replicaManager = replicaManager;
+        this.transactionMetrics = daoMetrics.getTransactions();
+        this.optimisticLockMetrics = daoMetrics.getOptimisticLocks();
+        this.keyFilterMetrics = daoMetrics.getKeyFilters();
         this.entityClass = entityClass;
         this.shardCalculator = shardCalculator;
 
@@ -178,18 +380,83 @@ public class LookupDao<T> implements ShardedDao<T> {
             }
         }
         Preconditions.checkArgument(ClassUtils.isAssignable(keyField.getType(), String.class), "Key field must be a string");
+        keyQueries = new KeyQueries(entityClass, keyField.getName());
+        versioned = FieldUtils.getFieldsWithAnnotation(entityClass, Version.class).length != 0;
+        globalIndexes = new GlobalIndexes(sessionFactories, replicaManager, entityClass, shardCalculator, transactionMetrics);
+        bucketIdField = BucketIdField.forEntity(entityClass);
+    }
+
+    /**
+     * Sets how updates in lock guard against concurrent writers.
+     * {@link ConcurrencyMode#OPTIMISTIC} needs a field annotated with {@link Version} in the entity.
+     */
+    public void setConcurrencyMode(ConcurrencyMode concurrencyMode) {
+        Preconditions.checkArgument(concurrencyMode != ConcurrencyMode.OPTIMISTIC || versioned,
+                                    "Optimistic updates need a version field in " + entityClass.getSimpleName());
+        this.concurrencyMode = concurrencyMode;
+    }
+
+    /**
+     * Makes {@link #updateInLock(String, Function)} and {@link #lockAndGetExecutor(String)} take an in process lock
+     * on the key before going to the database. Writers on the same key in this JVM then take turns instead of racing
+     * for the row lock.
+     */
+    public void enableKeyLocks(KeyLockConfig config) {
+        this.keyLocks = new KeyLocks(config);
+    }
+
+    /**
+     * Keeps a Bloom filter of the keys in each shard, so that lookups for keys that do not exist skip the database.
+     * The filters are built by scanning the keys of the shards before this returns, and keys saved through this dao
+     * are added to them. The filters only know about keys saved in this process, so by default they only skip lookups
+     * when {@link KeyFilterConfig#isSingleWriter()} is set. With other writers, a positive
+     * {@link KeyFilterConfig#getMaxFilterAgeMs()} lets filters rule keys out for that long after they are built, and
+     * keys inserted by other processes can be missed for up to that long. Call {@link #rebuildKeyFilters()} more
+     * often than that to keep skipping lookups.
+     */
+    public void enableKeyFilters(KeyFilterConfig config) {
+        this.keyFilters = new KeyFilters(daos.size(), config, keyFilterMetrics);
+        rebuildKeyFilters();
+    }
+
+    /**
+     * Builds the key filters again from the keys in the shards. This drops deleted keys from the filters and picks up
+     * keys inserted outside this dao. Shards are scanned in parallel on their primaries.
+     */
+    public void rebuildKeyFilters() {
+        final KeyFilters filters = keyFilters;
+        Preconditions.checkState(null != filters, "Key filters are not enabled");
+        final Map<Integer, Integer> shards = IntStream.range(0, daos.size())
+                .boxed()
+                .collect(Collectors.toMap(Function.identity(), Function.identity()));
+        ShardFanout.execute(shardCalculator.getShardManager().getFanoutExecutor(), shards, (shardId, ignored) -> {
+            final DetachedCriteria keys = DetachedCriteria.forClass(entityClass)
+                    .setProjection(Projections.property(keyField.getName()));
+            filters.build(shardId, () -> shardCalculator.getShardManager().guardStream(
+                    shardId, () -> ScrollingStreams.<String>open(
+                            daos.get(shardId).sessionFactory, keys, filters.getScanFetchSize())));
+            return true;
+        });
     }
 
     /**
      * Get an object on the basis of key (value of field annotated with {@link LookupKey}) from any shard.
      * <b>Note:</b> Lazy loading will not work once the object is returned.
      * If you need lazy loading functionality use the alternate {@link #get(String, Function)} method.
+     * Reads served by replicas are hedged if enabled in {@link io.appform.dropwizard.sharding.config.ReplicaConfig}.
      * @param key The value of the key field to look for.
      * @return The entity
      * @throws Exception if backing dao throws
      */
     public Optional<T> get(String key) throws Exception {
-        return Optional.ofNullable(get(key, t -> t));
+        int shardId = shardCalculator.shardId(key);
+        if (!mightExist(shardId, key)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(
+                hedgedRead(shardId, dao -> readMode == ReadMode.STATELESS
+                        ? Transactions.executeStateless(transactionMetrics, dao.sessionFactory, dao::get, key)
+                        : Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::get, key)));
     }
 
     /**
@@ -204,8 +471,10 @@ public class LookupDao<T> implements ShardedDao<T> {
      */
     public <U> U get(String key, Function<T, U> handler) throws Exception {
         int shardId = shardCalculator.shardId(key);
-        LookupDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, true, dao::get, key, handler);
+        if (!mightExist(shardId, key)) {
+            return handler.apply(null);
+        }
+        return read(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::get, key, handler));
     }
 
     /**
@@ -215,7 +484,32 @@ public class LookupDao<T> implements ShardedDao<T> {
      * @throws Exception if backing dao throws
      */
     public boolean exists(String key) throws Exception {
-        return get(key).isPresent();
+        int shardId = shardCalculator.shardId(key);
+        if (!mightExist(shardId, key)) {
+            return false;
+        }
+        return read(shardId, dao -> Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::exists, key));
+    }
+
+    /**
+     * Check which of the keys exist. Keys are grouped by shard and checked with one query per shard. Only the keys are
+     * read from the database.
+     * @param keys ids of the elements to look for
+     * @return Whether each of the keys exists, in the order the keys were passed
+     */
+    public Map<String, Boolean> existsAll(List<String> keys) {
+        final Map<Integer, List<String>> keysByShard = keys.stream()
+                .distinct()
+                .filter(key -> mightExist(shardCalculator.shardId(key), key))
+                .collect(Collectors.groupingBy(shardCalculator::shardId, Collectors.toList()));
+        final Set<String> existingKeys = keysByShard.entrySet()
+                .stream()
+                .flatMap(shardKeys -> read(shardKeys.getKey(), dao -> Transactions.executeRead(transactionMetrics, 
+                        dao.sessionFactory, dao::existingKeys, shardKeys.getValue())).stream())
+                .collect(Collectors.toSet());
+        final Map<String, Boolean> result = new LinkedHashMap<>();
+        keys.forEach(key -> result.put(key, existingKeys.contains(key)));
+        return result;
     }
 
     /**
@@ -245,36 +539,81 @@ public class LookupDao<T> implements ShardedDao<T> {
         final String key = keyField.get(entity).toString();
         int shardId = shardCalculator.shardId(key);
         log.debug("Saving entity of type {} with key {} to shard {}", entityClass.getSimpleName(), key, shardId);
-        LookupDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, false, dao::save, entity, handler);
+        bucketIdField.set(entity, shardCalculator.bucketId(key));
+        globalIndexes.add(key, globalIndexes.values(entity));
+        final U result = write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, dao::save, entity, handler));
+        keySaved(shardId, key);
+        return result;
     }
 
+    /**
+     * Update an entity while guarding against concurrent writers as set in {@link #getConcurrencyMode()}.
+     * In {@link ConcurrencyMode#OPTIMISTIC} mode the updater is applied again on a fresh copy of the entity if the
+     * update conflicts with another writer.
+     * @param id key of the entity
+     * @param updater Receives the current entity and returns the updated one or null to skip the update
+     * @return true if the entity was updated
+     */
     public boolean updateInLock(String id, Function<Optional<T>, T> updater) {
         int shardId = shardCalculator.shardId(id);
-        LookupDaoPriv dao = daos.get(shardId);
-        return updateImpl(id, dao::getLockedForWrite, updater, dao);
+        final GlobalIndexes.Change indexChange = globalIndexes.change(id);
+        final boolean updated;
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            updated = OptimisticRetry.execute(optimisticLockConfig, optimisticLockMetrics, () -> withKeyLock(
+                    id, () -> write(shardId, dao -> updateImpl(id, dao::get, updater, dao, indexChange))));
+        } else {
+            updated = withKeyLock(id, () -> write(
+                    shardId, dao -> updateImpl(id, dao::getLockedForWrite, updater, dao, indexChange)));
+        }
+        indexChange.removeStale();
+        return updated;
     }
 
     public boolean update(String id, Function<Optional<T>, T> updater) {
         int shardId = shardCalculator.shardId(id);
-        LookupDaoPriv dao = daos.get(shardId);
-        return updateImpl(id, dao::get, updater, dao);
+        final GlobalIndexes.Change indexChange = globalIndexes.change(id);
+        final boolean updated = write(shardId, dao -> updateImpl(id, dao::get, updater, dao, indexChange));
+        indexChange.removeStale();
+        return updated;
     }
 
+    /**
+     * Runs a named update query on the shard of the key. When the entity has global indexes, the entity with the key is
+     * read before and after the query and its index entries are updated for the values the query changed. Index
+     * entries of other rows the query changes are not updated.
+     */
     public int updateUsingQuery(String id, UpdateOperationMeta updateOperationMeta) {
         int shardId = shardCalculator.shardId(id);
-        LookupDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, false, dao::update, updateOperationMeta);
+        if (globalIndexes.isEmpty()) {
+            return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, dao::update, updateOperationMeta));
+        }
+        final GlobalIndexes.Change indexChange = globalIndexes.change(id);
+        final int updated = write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, meta -> {
+            final T entity = dao.get(id);
+            indexChange.before(entity);
+            final int rows = dao.update(meta);
+            indexChange.after(dao.reload(id, entity));
+            indexChange.addNew();
+            return rows;
+        }, updateOperationMeta));
+        indexChange.removeStale();
+        return updated;
     }
 
-    private boolean updateImpl(String id, Function<String, T> getter, Function<Optional<T>, T> updater, LookupDaoPriv dao) {
+    private boolean updateImpl(String id, Function<String, T> getter, Function<Optional<T>, T> updater, LookupDaoPriv dao,
+                               GlobalIndexes.Change indexChange) {
         try {
-            return Transactions.<T, String, Boolean>execute(dao.sessionFactory, true, getter, id, entity -> {
+            return Transactions.<T, String, Boolean>execute(transactionMetrics, dao.sessionFactory, loadReadOnlyForUpdate(), getter, id, entity -> {
+                indexChange.before(entity);
                 T newEntity = updater.apply(Optional.ofNullable(entity));
                 if(null == newEntity) {
+                    dao.discard(entity);
                     return false;
                 }
-                dao.update(newEntity);
+                bucketIdField.set(newEntity, shardCalculator.bucketId(id));
+                dao.update(entity, newEntity);
+                indexChange.after(newEntity);
+                indexChange.addNew();
                 return true;
             });
         } catch (Exception e) {
@@ -282,10 +621,27 @@ public class LookupDao<T> implements ShardedDao<T> {
         }
     }
 
+    /**
+     * Entities are loaded read only for updates, except for {@link UpdateMode#DIRTY_COLUMNS}, which needs the state
+     * they were loaded with to find the changed columns.
+     */
+    private boolean loadReadOnlyForUpdate() {
+        return updateMode != UpdateMode.DIRTY_COLUMNS;
+    }
+
     public LockedContext<T> lockAndGetExecutor(String id) {
         int shardId = shardCalculator.shardId(id);
         LookupDaoPriv dao = daos.get(shardId);
-        return new LockedContext<>(shardId, dao.sessionFactory, dao::getLockedForWrite, id);
+        final LockedContext<T> context;
+        if (concurrencyMode == ConcurrencyMode.OPTIMISTIC) {
+            context = guarded(new LockedContext<>(shardId, dao.sessionFactory, dao::getForOptimisticWrite, id));
+            context.optimisticLockConfig = optimisticLockConfig;
+        } else {
+            context = guarded(new LockedContext<>(shardId, dao.sessionFactory, dao::getLockedForWrite, id));
+        }
+        context.keyLocks = keyLocks;
+        context.indexChange = globalIndexes.change(id);
+        return context;
     }
 
     public LockedContext<T> saveAndGetExecutor(T entity) {
@@ -296,8 +652,30 @@ public class LookupDao<T> implements ShardedDao<T> {
             throw new RuntimeException(e);
         }
         int shardId = shardCalculator.shardId(id);
+        bucketIdField.set(entity, shardCalculator.bucketId(id));
         LookupDaoPriv dao = daos.get(shardId);
-        return new LockedContext<>(shardId, dao.sessionFactory, dao::save, entity);
+        final LockedContext<T> context = guarded(new LockedContext<>(shardId, dao.sessionFactory, dao::save, entity));
+        context.indexChange = globalIndexes.change(id);
+        context.key = id;
+        context.keyFilters = keyFilters;
+        return context;
+    }
+
+    /**
+     * Returns a context to read an entity and its related entities on the entity's shard in a single read only
+     * session and transaction. The reads run on a replica of the shard if available.
+     * <pre>
+     * Optional&lt;Order&gt; order = orderDao.readOnlyExecutor(orderId)
+     *         .readAugmentParent(orderItemDao, itemsCriteria, (parent, items) -&gt; parent.setItems(items))
+     *         .execute();
+     * </pre>
+     * @param id key of the parent entity
+     * @return Context on which related reads can be added
+     */
+    public ReadOnlyContext<T> readOnlyExecutor(String id) {
+        int shardId = shardCalculator.shardId(id);
+        return new ReadOnlyContext<>(shardId, id,
+                                     context -> read(shardId, dao -> context.executeOn(dao.sessionFactory, dao::get, transactionMetrics)));
     }
 
     /**
@@ -307,15 +685,100 @@ public class LookupDao<T> implements ShardedDao<T> {
      * @return List of elements or empty if none match
      */
     public List<T> scatterGather(DetachedCriteria criteria) {
-        return daos.stream().map(dao -> {
+        return IntStream.range(0, daos.size()).mapToObj(shardId -> {
             try {
-                return Transactions.execute(dao.sessionFactory, true, dao::select, criteria);
+                return read(shardId, dao -> readMode == ReadMode.STATELESS
+                        ? Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::select, criteria)
+                        : Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::select, criteria));
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }).flatMap(Collection::stream).collect(Collectors.toList());
     }
 
+    /**
+     * Streams the entities matching the criteria across all shards, one shard after the other, without loading them
+     * all in memory. Rows are fetched {@value ScrollingStreams#DEFAULT_FETCH_SIZE} at a time.
+     * <b>Note:</b> The stream holds a session and a connection until it is fully read or closed. Use it in a
+     * try-with-resources block. Lazy loading does not work on streamed entities.
+     * @param criteria The select criteria
+     * @return Lazily read stream of matching entities
+     */
+    public Stream<T> streamAll(DetachedCriteria criteria) {
+        return streamAll(criteria, ScrollingStreams.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Same as {@link #streamAll(DetachedCriteria)}, with the given JDBC fetch size. The session is also cleared every
+     * fetch size rows.
+     */
+    public Stream<T> streamAll(DetachedCriteria criteria, int fetchSize) {
+        return ScrollingStreams.concat(IntStream.range(0, daos.size())
+                .<Supplier<Stream<T>>>mapToObj(shardId -> () -> openStream(shardId, criteria, fetchSize))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Stream the objects whose keys fall in a range of buckets (see {@link ShardManager#numBuckets()}), so that a job
+     * over all objects can be split into independent units of buckets and resumed from the last finished unit.
+     * Only the shards owning the buckets are read. If the entity has a field annotated with
+     * {@link io.appform.dropwizard.sharding.sharding.BucketId}, the buckets are selected with a query on that column.
+     * Otherwise the bucket of each object is computed from its key while reading, so a unit costs a scan over the rows
+     * of its shards that match the criteria.
+     * The stream must be closed once done. See {@link #streamAll(DetachedCriteria, int)}.
+     * @param fromBucket first bucket of the range
+     * @param toBucket last bucket of the range, inclusive
+     * @param criteria selection criteria to be applied
+     * @return Stream of the objects in the buckets
+     */
+    public Stream<T> scanBuckets(int fromBucket, int toBucket, DetachedCriteria criteria) {
+        return scanBuckets(fromBucket, toBucket, criteria, ScrollingStreams.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Stream the objects whose keys fall in a bucket. See {@link #scanBuckets(int, int, DetachedCriteria)}.
+     */
+    public Stream<T> scanBucket(int bucketId, DetachedCriteria criteria) {
+        return scanBuckets(bucketId, bucketId, criteria);
+    }
+
+    public Stream<T> scanBuckets(int fromBucket, int toBucket, DetachedCriteria criteria, int fetchSize) {
+        final Set<Integer> shardIds = shardCalculator.getShardManager().shardsForBuckets(fromBucket, toBucket);
+        if (bucketIdField.isPresent()) {
+            final DetachedCriteria bucketCriteria = bucketIdField.inRange(criteria, fromBucket, toBucket);
+            return ScrollingStreams.concat(shardIds.stream()
+                    .<Supplier<Stream<T>>>map(shardId -> () -> openStream(shardId, bucketCriteria, fetchSize))
+                    .collect(Collectors.toList()));
+        }
+        return ScrollingStreams.concat(shardIds.stream()
+                .<Supplier<Stream<T>>>map(shardId -> () -> openStream(shardId, criteria, fetchSize))
+                .collect(Collectors.toList()))
+                .filter(entity -> {
+                    final int bucketId = shardCalculator.bucketId(key(entity));
+                    return bucketId >= fromBucket && bucketId <= toBucket;
+                });
+    }
+
+    /**
+     * Counts the rows matching the criteria in each bucket across all shards. Needs a field annotated with
+     * {@link io.appform.dropwizard.sharding.sharding.BucketId} in the entity. Buckets without rows are left out.
+     * @param criteria The select criteria
+     * @return Number of rows by bucket
+     */
+    public Map<Integer, Long> countPerBucket(DetachedCriteria criteria) {
+        bucketIdField.checkPresent();
+        final Map<Integer, Long> counts = new TreeMap<>();
+        IntStream.range(0, daos.size())
+                .mapToObj(shardId -> read(shardId, dao -> Transactions.execute(transactionMetrics, 
+                        dao.sessionFactory, true,
+                        shardCriteria -> bucketIdField.countPerBucket(dao.sessionFactory.getCurrentSession(),
+                                                                      shardCriteria),
+                        criteria)))
+                .forEach(shardCounts -> shardCounts.forEach(
+                        (bucketId, count) -> counts.merge(bucketId, count, Long::sum)));
+        return counts;
+    }
+
     /**
      * Queries using the specified criteria across all shards and returns the counts of rows satisfying the criteria.
      * <b>Note:</b> This method runs the query serially and it's usage is not recommended.
@@ -323,9 +786,9 @@ public class LookupDao<T> implements ShardedDao<T> {
      * @return List of counts in each shard
      */
     public List<Long> count(DetachedCriteria criteria) {
-        return daos.stream().map(dao -> {
+        return IntStream.range(0, daos.size()).mapToObj(shardId -> {
             try {
-                return Transactions.execute(dao.sessionFactory, true, dao::count, criteria);
+                return read(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::count, criteria));
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -340,35 +803,184 @@ public class LookupDao<T> implements ShardedDao<T> {
      */
     public List<T> get(List<String> keys) {
         Map<Integer,List<String>> lookupKeysGroupByShards = keys.stream()
+                .filter(key -> mightExist(shardCalculator.shardId(key), key))
                 .collect(
                         Collectors.groupingBy(shardCalculator::shardId, Collectors.toList()));
 
         return lookupKeysGroupByShards.keySet().stream().map(shardId -> {
             try {
-                DetachedCriteria criteria = DetachedCriteria.forClass(entityClass)
-                        .add(Restrictions.in(keyField.getName(),lookupKeysGroupByShards.get(shardId)));
-                return Transactions.execute(daos.get(shardId).sessionFactory, true, daos.get(shardId)::select, criteria);
+                final List<String> shardKeys = lookupKeysGroupByShards.get(shardId);
+                return read(shardId, dao -> readMode == ReadMode.STATELESS
+                        ? Transactions.executeStateless(transactionMetrics, dao.sessionFactory, dao::getAll, shardKeys)
+                        : Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::getAll, shardKeys));
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }).flatMap(Collection::stream).collect(Collectors.toList());
     }
 
+    /**
+     * Get the objects that have the value in the field annotated with
+     * {@link io.appform.dropwizard.sharding.sharding.GlobalIndex}. The keys are read from the shard of the value and
+     * the objects from the shards of the keys. Objects whose field no longer has the value are left out.
+     * @param index name of the index, the name of the field unless set in the annotation
+     * @param value value to look for
+     * @return Objects with the value
+     */
+    public List<T> getByIndex(String index, Object value) {
+        final List<String> keys = globalIndexes.lookup(index, value);
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return get(keys).stream()
+                .filter(entity -> globalIndexes.matches(index, entity, value))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the handler in a transaction on the shard of the key. Global index entries are not updated for changes
+     * made by the handler.
+     */
     public <U> U runInSession(String id, Function<Session, U> handler) {
         int shardId = shardCalculator.shardId(id);
-        LookupDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, handler);
+        return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, handler));
     }
 
+    /**
+     * Delete the object with the given key. See {@link #getDeleteMode()} for how the delete is run. Global index
+     * entries of the object are removed once the delete is committed.
+     * @param id key of the object to delete
+     * @return true if the object was found and deleted
+     */
     public boolean delete(String id) {
         int shardId = shardCalculator.shardId(id);
-        return Transactions.execute(daos.get(shardId).sessionFactory, false, daos.get(shardId)::delete, id);
+        final GlobalIndexes.Change indexChange = globalIndexes.change(id);
+        final boolean deleted = write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, key -> {
+            if (!globalIndexes.isEmpty()) {
+                indexChange.before(dao.get(key));
+            }
+            return dao.delete(key);
+        }, id));
+        if (deleted) {
+            indexChange.after(null);
+            indexChange.removeStale();
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete the objects with the given keys. Keys are grouped by shard and deleted in one transaction per shard,
+     * in batches of {@value #DELETE_BATCH_SIZE} keys. Shards are processed serially and a failure on one shard does
+     * not roll back deletes already committed on other shards. Global index entries of the deleted objects are
+     * removed once the shard's deletes are committed.
+     * @param ids keys of the objects to delete
+     * @return Number of objects deleted
+     */
+    public int deleteAll(List<String> ids) {
+        final Map<Integer, List<String>> idsByShard = ids.stream()
+                .distinct()
+                .collect(Collectors.groupingBy(shardCalculator::shardId, Collectors.toList()));
+        return idsByShard.entrySet()
+                .stream()
+                .mapToInt(shardIds -> {
+                    final Map<String, Map<String, String>> indexed = new LinkedHashMap<>();
+                    final int deleted = write(shardIds.getKey(), dao -> Transactions.execute(transactionMetrics,
+                            dao.sessionFactory, false, shardKeys -> {
+                                if (!globalIndexes.isEmpty()) {
+                                    Lists.partition(shardKeys, DELETE_BATCH_SIZE)
+                                            .forEach(chunk -> dao.getAll(chunk).forEach(
+                                                    entity -> indexed.put(key(entity), globalIndexes.values(entity))));
+                                }
+                                return dao.deleteAll(shardKeys);
+                            }, shardIds.getValue()));
+                    indexed.forEach(globalIndexes::removeStale);
+                    return deleted;
+                })
+                .sum();
     }
 
     protected Field getKeyField() {
         return this.keyField;
     }
 
+    private String key(T entity) {
+        try {
+            return keyField.get(entity).toString();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs a read only operation on the least loaded replica of the shard or on the primary if the shard has no
+     * replicas or the caller has asked for reads from primary.
+     */
+    private <U> U read(int shardId, Function<LookupDaoPriv, U> reader) {
+        return guard(shardId,
+                () -> replicaManager.read(shardId, lease -> reader.apply(dao(shardId, lease))));
+    }
+
+    /**
+     * Same as {@link #read(int, Function)} for streams over the rows matching the criteria. The bulkhead slot of the
+     * shard and the lease on the replica are held until the stream is closed.
+     */
+    private Stream<T> openStream(int shardId, DetachedCriteria criteria, int fetchSize) {
+        return shardCalculator.getShardManager().guardStream(shardId, () -> replicaManager.stream(
+                shardId, lease -> ScrollingStreams.<T>open(dao(shardId, lease).sessionFactory, criteria, fetchSize)));
+    }
+
+    /**
+     * Same as {@link #read(int, Function)}, but slow reads are hedged on another replica of the shard.
+     * See {@link ReplicaManager#hedgedRead(int, Function)}.
+     */
+    private <U> U hedgedRead(int shardId, Function<LookupDaoPriv, U> reader) {
+        return guard(shardId,
+                () -> replicaManager.hedgedRead(shardId, lease -> reader.apply(dao(shardId, lease))));
+    }
+
+    private boolean mightExist(int shardId, String key) {
+        final KeyFilters filters = keyFilters;
+        return null == filters || filters.mightContain(shardId, key);
+    }
+
+    private void keySaved(int shardId, String key) {
+        final KeyFilters filters = keyFilters;
+        if (null != filters) {
+            filters.put(shardId, key);
+        }
+    }
+
+    private LookupDaoPriv dao(int shardId, ReplicaManager.Lease lease) {
+        return lease.isPrimary()
+                ? daos.get(shardId)
+                : replicaDaos.get(shardId).get(lease.getReplicaId());
+    }
+
+    /**
+     * Runs a write on the primary of the shard and records it in the current {@link ConsistencySession} once committed.
+     */
+    private <U> U write(int shardId, Function<LookupDaoPriv, U> writer) {
+        final U result = guard(shardId, () -> writer.apply(daos.get(shardId)));
+        ConsistencySession.recordCommit(shardId);
+        return result;
+    }
+
+    private LockedContext<T> guarded(LockedContext<T> context) {
+        context.shardManager = shardCalculator.getShardManager();
+        context.transactionMetrics = transactionMetrics;
+        context.optimisticLockMetrics = optimisticLockMetrics;
+        return context;
+    }
+
+    private <U> U withKeyLock(String id, Supplier<U> call) {
+        final KeyLocks locks = keyLocks;
+        return null == locks ? call.get() : locks.execute(id, call);
+    }
+
+    private <U> U guard(int shardId, Supplier<U> call) {
+        return shardCalculator.getShardManager().guard(shardId, call);
+    }
+
     /**
      * A context for a shard
      */
@@ -389,6 +1001,20 @@ public class LookupDao<T> implements ShardedDao<T> {
         private String key;
         private List<Function<T, Void>> operations = Lists.newArrayList();
         private final Mode mode;
+        @Getter(AccessLevel.NONE)
+        private ShardManager shardManager;
+        @Getter(AccessLevel.NONE)
+        private TransactionMetrics transactionMetrics = TransactionMetrics.NOOP;
+        @Getter(AccessLevel.NONE)
+        private OptimisticLockConfig optimisticLockConfig;
+        @Getter(AccessLevel.NONE)
+        private OptimisticLockMetrics optimisticLockMetrics;
+        @Getter(AccessLevel.NONE)
+        private KeyLocks keyLocks;
+        @Getter(AccessLevel.NONE)
+        private GlobalIndexes.Change indexChange;
+        @Getter(AccessLevel.NONE)
+        private KeyFilters keyFilters;
 
         public LockedContext(int shardId, SessionFactory sessionFactory, Function<String, T> getter, String key) {
             this.shardId = shardId;
@@ -520,18 +1146,55 @@ public class LookupDao<T> implements ShardedDao<T> {
         }
 
         public T execute() {
-            TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, false);
+            final T result = null != optimisticLockConfig
+                    ? OptimisticRetry.execute(optimisticLockConfig, optimisticLockMetrics, this::lockedExecute)
+                    : lockedExecute();
+            if (null != keyFilters && mode == Mode.INSERT) {
+                keyFilters.put(shardId, key);
+            }
+            if (null != indexChange) {
+                indexChange.removeStale();
+            }
+            return result;
+        }
+
+        private T lockedExecute() {
+            return null == keyLocks
+                    ? guardedExecute()
+                    : keyLocks.execute(key, this::guardedExecute);
+        }
+
+        private T guardedExecute() {
+            return null == shardManager
+                    ? executeImpl()
+                    : shardManager.guard(shardId, this::executeImpl);
+        }
+
+        private T executeImpl() {
+            TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, false, transactionMetrics);
             transactionHandler.beforeStart();
+            boolean completed = false;
             try {
                 T result = generateEntity();
+                if (null != indexChange && mode == Mode.READ) {
+                    indexChange.before(result);
+                }
                 operations
                         .forEach(operation -> operation.apply(result));
+                if (null != indexChange) {
+                    indexChange.after(result);
+                    indexChange.addNew();
+                }
+                completed = true;
                 return result;
             } catch (Exception e) {
                 transactionHandler.onError();
                 throw e;
             } finally {
                 transactionHandler.afterEnd();
+                if (completed) {
+                    ConsistencySession.recordCommit(shardId);
+                }
             }
         }
 
@@ -554,4 +1217,88 @@ public class LookupDao<T> implements ShardedDao<T> {
             return result;
         }
     }
+
+    /**
+     * A read only context for an entity and its related entities on the entity's shard. All reads run in one
+     * session, so lazy associations can be loaded inside the operations.
+     */
+    @Getter
+    public static class ReadOnlyContext<T> {
+        private final int shardId;
+        private final String key;
+        private final List<Function<T, Void>> operations = Lists.newArrayList();
+        @Getter(AccessLevel.NONE)
+        private final Function<ReadOnlyContext<T>, Optional<T>> runner;
+        private SessionFactory sessionFactory;
+
+        ReadOnlyContext(int shardId, String key, Function<ReadOnlyContext<T>, Optional<T>> runner) {
+            this.shardId = shardId;
+            this.key = key;
+            this.runner = runner;
+        }
+
+        public ReadOnlyContext<T> apply(Function<T, Void> handler) {
+            this.operations.add(handler);
+            return this;
+        }
+
+        /**
+         * Selects entities related to the parent and hands them to the consumer along with the parent
+         */
+        public <U> ReadOnlyContext<T> readAugmentParent(RelationalDao<U> relationalDao,
+                                                        DetachedCriteria criteria,
+                                                        BiConsumer<T, List<U>> consumer) {
+            return apply(parent -> {
+                try {
+                    consumer.accept(parent, relationalDao.select(this, criteria));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            });
+        }
+
+        public <U> ReadOnlyContext<T> readAugmentParent(RelationalDao<U> relationalDao,
+                                                        DetachedCriteria criteria,
+                                                        int first,
+                                                        int numResults,
+                                                        BiConsumer<T, List<U>> consumer) {
+            return apply(parent -> {
+                try {
+                    consumer.accept(parent, relationalDao.select(this, criteria, first, numResults));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            });
+        }
+
+        /**
+         * Reads the parent and runs the operations on it
+         * @return The parent, or empty if it does not exist. Operations are not run in that case.
+         */
+        public Optional<T> execute() {
+            return runner.apply(this);
+        }
+
+        private Optional<T> executeOn(SessionFactory sessionFactory,
+                                      Function<String, T> getter,
+                                      TransactionMetrics transactionMetrics) {
+            this.sessionFactory = sessionFactory;
+            TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, true, transactionMetrics);
+            transactionHandler.beforeStart();
+            try {
+                T result = getter.apply(key);
+                if (null != result) {
+                    operations.forEach(operation -> operation.apply(result));
+                }
+                return Optional.ofNullable(result);
+            } catch (Exception e) {
+                transactionHandler.onError();
+                throw e;
+            } finally {
+                transactionHandler.afterEnd();
+            }
+        }
+    }
 }
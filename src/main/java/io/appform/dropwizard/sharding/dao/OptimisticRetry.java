@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryException;
+import com.github.rholder.retry.RetryListener;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategies;
+import com.google.common.base.Throwables;
+import io.appform.dropwizard.sharding.config.OptimisticLockConfig;
+import io.appform.dropwizard.sharding.utils.OptimisticLockMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.StaleStateException;
+
+import javax.persistence.OptimisticLockException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs optimistic updates and retries them when they conflict with another writer.
+ */
+@Slf4j
+final class OptimisticRetry {
+
+    private OptimisticRetry() {
+    }
+
+    static <U> U execute(OptimisticLockConfig config, OptimisticLockMetrics metrics, Supplier<U> update) {
+        final Retryer<U> retryer = RetryerBuilder.<U>newBuilder()
+                .retryIfException(OptimisticRetry::isConflict)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(config.getMaxAttempts()))
+                .withWaitStrategy(failedAttempt -> ThreadLocalRandom.current()
+                        .nextLong(delayCap(config, failedAttempt.getAttemptNumber()) + 1))
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        metrics.getAttempts().mark();
+                        if (attempt.hasException() && isConflict(attempt.getExceptionCause())) {
+                            metrics.getConflicts().mark();
+                        }
+                    }
+                })
+                .build();
+        try {
+            return retryer.call(update::get);
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        } catch (RetryException e) {
+            metrics.getExhausted().mark();
+            log.warn("Update conflicted with other writers in all {} attempts", e.getNumberOfFailedAttempts());
+            throw unchecked(e.getLastFailedAttempt().getExceptionCause());
+        }
+    }
+
+    static boolean isConflict(Throwable t) {
+        return Throwables.getCausalChain(t)
+                .stream()
+                .anyMatch(cause -> cause instanceof StaleStateException || cause instanceof OptimisticLockException);
+    }
+
+    private static RuntimeException unchecked(Throwable t) {
+        Throwables.throwIfUnchecked(t);
+        return new RuntimeException(t);
+    }
+
+    private static long delayCap(OptimisticLockConfig config, long attemptNumber) {
+        final long cap = config.getBaseDelayMs() << Math.min(attemptNumber - 1, 20);
+        return Math.min(Math.max(cap, 0), config.getMaxDelayMs());
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+/**
+ * How daos run plain reads that return detached entities.
+ */
+public enum ReadMode {
+    /**
+     * Reads run in a regular session, the same way as reads with handlers
+     */
+    SESSION,
+    /**
+     * Key lookups run on a {@link org.hibernate.StatelessSession}, so no persistence context or snapshots are kept.
+     * Criteria queries run on a read only session that is not bound to the context, as
+     * {@link org.hibernate.criterion.DetachedCriteria} can only be bound to a regular session.
+     * Lazy associations cannot be loaded on entities read this way.
+     */
+    STATELESS
+}
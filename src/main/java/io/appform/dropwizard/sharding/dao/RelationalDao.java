@@ -18,33 +18,49 @@
 package io.appform.dropwizard.sharding.dao;
 
 import com.google.common.base.Preconditions;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.dropwizard.hibernate.AbstractDAO;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
+import io.appform.dropwizard.sharding.utils.TransactionMetrics;
 import io.appform.dropwizard.sharding.utils.Transactions;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.hibernate.*;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Restrictions;
 import org.hibernate.query.Query;
 
 import javax.persistence.Id;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * A dao used to work with entities related to a parent shard. The parent may or maynot be physically present.
  * A murmur 128 hash of the string parent key is used to route the save and retrieve calls from the proper shard.
+ * Reads are sent to the read replicas of the shard if available. Use {@link ReadPreferences#fromPrimary} to force
+ * reads to the primary.
  */
 @Slf4j
 public class RelationalDao<T> implements ShardedDao<T> {
@@ -64,10 +80,19 @@ public class RelationalDao<T> implements ShardedDao<T> {
         }
 
         T get(Object lookupKey) {
-            return uniqueResult(currentSession()
-                                .createCriteria(entityClass)
-                                .add(
-                                        Restrictions.eq(keyField.getName(), lookupKey)));
+            return uniqueResult(keyQueries.lookup(currentSession(), entityClass, lookupKey));
+        }
+
+        T get(Session session, Object lookupKey) {
+            return uniqueResult(keyQueries.lookup(session, entityClass, lookupKey));
+        }
+
+        T get(StatelessSession session, Object lookupKey) {
+            return uniqueResult(keyQueries.lookup(session, entityClass, lookupKey));
+        }
+
+        boolean exists(Session session, Object lookupKey) {
+            return null != keyQueries.exists(session, lookupKey).uniqueResult();
         }
 
         T save(T entity) {
@@ -82,6 +107,10 @@ public class RelationalDao<T> implements ShardedDao<T> {
         }
 
         void update(T oldEntity, T entity) {
+            if (updateMode == UpdateMode.DIRTY_COLUMNS
+                    && DirtyColumnUpdater.update(currentSession(), oldEntity, entity)) {
+                return;
+            }
             currentSession().evict(oldEntity); //Detach .. otherwise update is a no-op
             currentSession().update(entity);
         }
@@ -93,11 +122,101 @@ public class RelationalDao<T> implements ShardedDao<T> {
             return list(criteria);
         }
 
+        List<T> select(Session session, SelectParamPriv selectParam) {
+            val criteria = selectParam.criteria.getExecutableCriteria(session);
+            criteria.setFirstResult(selectParam.start);
+            criteria.setMaxResults(selectParam.numRows);
+            return list(criteria);
+        }
+
+        List<T> selectAll(DetachedCriteria criteria) {
+            return list(criteria.getExecutableCriteria(currentSession()));
+        }
+
+        List<T> selectAll(Session session, DetachedCriteria criteria) {
+            return list(criteria.getExecutableCriteria(session));
+        }
+
         ScrollableResults scroll(ScrollParamPriv scrollDetails) {
             final Criteria criteria = scrollDetails.getCriteria().getExecutableCriteria(currentSession());
             return criteria.scroll(ScrollMode.FORWARD_ONLY);
         }
 
+        /**
+         * Scroll through matching rows and update them, flushing and clearing the session every chunk of rows so that
+         * memory use stays flat.
+         * @return Number of entities updated
+         */
+        @SuppressWarnings("unchecked")
+        int updateAll(UpdateAllParamPriv<T> updateParam) {
+            final ScrollableResults results = updateParam.criteria.getExecutableCriteria(currentSession())
+                    .setFetchSize(updateParam.chunkSize)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            int read = 0;
+            int updated = 0;
+            try {
+                while (results.next()) {
+                    final T entity = (T) results.get(0);
+                    final T newEntity = updateParam.updater.apply(entity);
+                    if (null != newEntity) {
+                        update(entity, newEntity);
+                        updated++;
+                    } else {
+                        discard(entity);
+                    }
+                    if (++read % updateParam.chunkSize == 0) {
+                        currentSession().flush();
+                        currentSession().clear();
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            return updated;
+        }
+
+        /**
+         * Update the next chunk of rows after the checkpoint in keyset order
+         * @return Page of the entities that were read, with the checkpoint after them
+         */
+        KeysetPage<T> updateChunk(UpdateAllParamPriv<T> updateParam) {
+            final KeysetPage<T> page = updateParam.cursor.page(
+                    select(SelectParamPriv.builder()
+                                   .criteria(updateParam.cursor.criteria(updateParam.criteria,
+                                                                         updateParam.checkpoint))
+                                   .start(0)
+                                   .numRows(updateParam.chunkSize + 1)
+                                   .build()),
+                    updateParam.chunkSize);
+            for (T entity : page.getItems()) {
+                final T newEntity = updateParam.updater.apply(entity);
+                if (null != newEntity) {
+                    update(entity, newEntity);
+                } else {
+                    discard(entity);
+                }
+            }
+            return page;
+        }
+
+        /**
+         * Detaches an entity the updater did not return. Entities are loaded modifiable for
+         * {@link UpdateMode#DIRTY_COLUMNS} updates, and changes made to them in place must not be written on flush.
+         */
+        void discard(T entity) {
+            if (null != entity && updateMode == UpdateMode.DIRTY_COLUMNS) {
+                currentSession().evict(entity);
+            }
+        }
+
+        /**
+         * Write out pending updates and detach the given entities
+         */
+        void flushAndEvict(List<Object> entities) {
+            currentSession().flush();
+            entities.forEach(currentSession()::evict);
+        }
+
         long count(DetachedCriteria criteria) {
             return  (long)criteria.getExecutableCriteria(currentSession())
                             .setProjection(Projections.rowCount())
@@ -119,17 +238,45 @@ public class RelationalDao<T> implements ShardedDao<T> {
         int numRows;
     }
 
+    @Builder
+    private static class UpdateAllParamPriv<T> {
+        DetachedCriteria criteria;
+        Function<T, T> updater;
+        int chunkSize;
+        KeysetCursor cursor;
+        String checkpoint;
+    }
+
     @Builder
     private static class ScrollParamPriv {
         @Getter
         private DetachedCriteria criteria;
     }
 
+    private static final int BULK_UPDATE_CHUNK_SIZE = 500;
+
     private List<RelationalDaoPriv> daos;
+    private List<List<RelationalDaoPriv>> replicaDaos;
+    private final ReplicaManager replicaManager;
+    private final TransactionMetrics transactionMetrics;
     private final Class<T> entityClass;
     @Getter
     private final ShardCalculator<String> shardCalculator;
     private final Field keyField;
+    private final KeyQueries keyQueries;
+    private final BucketIdField bucketIdField;
+    /**
+     * Read mode for get, select and scatterGather without handlers. See {@link ReadMode}.
+     */
+    @Getter
+    @Setter
+    private volatile ReadMode readMode = ReadMode.SESSION;
+    /**
+     * How entities returned by updaters are written. See {@link UpdateMode}.
+     */
+    @Getter
+    @Setter
+    private volatile UpdateMode updateMode = UpdateMode.FULL;
 
     /**
      * Create a relational DAO.
@@ -140,8 +287,46 @@ public class RelationalDao<T> implements ShardedDao<T> {
     public RelationalDao(
             List<SessionFactory> sessionFactories, Class<T> entityClass,
             ShardCalculator<String> shardCalculator ) {
+        this(sessionFactories, entityClass, shardCalculator, ReplicaManager.noReplicas());
+    }
+
+    /**
+     * Create a relational DAO that sends reads to read replicas of the shards when available.
+     * @param sessionFactories List of session factories. One for each shard.
+     * @param entityClass The class for which the dao will be used.
+     * @param shardCalculator
+     * @param replicaManager Read replicas for the shards
+     */
+    public RelationalDao(
+            List<SessionFactory> sessionFactories, Class<T> entityClass,
+            ShardCalculator<String> shardCalculator,
+            ReplicaManager replicaManager) {
+        this(sessionFactories, entityClass, shardCalculator, replicaManager, DaoMetrics.unregistered());
+    }
+
+    /**
+     * Create a relational DAO that reports its metrics to the given bundle metrics.
+     * @param sessionFactories List of session factories. One for each shard.
+     * @param entityClass The class for which the dao will be used.
+     * @param shardCalculator
+     * @param replicaManager Read replicas for the shards
+     * @param daoMetrics Metrics of the bundle the DAO belongs to
+     */
+    public RelationalDao(
+            List<SessionFactory> sessionFactories, Class<T> entityClass,
+            ShardCalculator<String> shardCalculator,
+            ReplicaManager replicaManager,
+            DaoMetrics daoMetrics) {
         this.shardCalculator = shardCalculator;
         this.daos = sessionFactories.stream().map(RelationalDaoPriv::new).collect(Collectors.toList());
+        this.replicaDaos = IntStream.range(0, sessionFactories.size())
+                .mapToObj(shardId -> replicaManager.replicas(shardId)
+                        .stream()
+                        .map(RelationalDaoPriv::new)
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        this.replicaManager = replicaManager;
+        this.transactionMetrics = daoMetrics.getTransactions();
         this.entityClass = entityClass;
 
         Field fields[] = FieldUtils.getFieldsWithAnnotation(entityClass, Id.class);
@@ -156,17 +341,21 @@ public class RelationalDao<T> implements ShardedDao<T> {
                 throw new IllegalArgumentException("Invalid class, DAO cannot be created.", e);
             }
         }
+        keyQueries = new KeyQueries(entityClass, keyField.getName());
+        bucketIdField = BucketIdField.forEntity(entityClass);
     }
 
 
     public Optional<T> get(String parentKey, Object key) throws Exception {
-        return Optional.ofNullable(get(parentKey, key, t-> t));
+        int shardId = shardCalculator.shardId(parentKey);
+        return Optional.ofNullable(read(shardId, dao -> readMode == ReadMode.STATELESS
+                ? Transactions.executeStateless(transactionMetrics, dao.sessionFactory, dao::get, key)
+                : Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::get, key)));
     }
 
     public<U> U get(String parentKey, Object key, Function<T, U> function) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, true, dao::get, key, function);
+        return read(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::get, key, function));
     }
 
     public Optional<T> save(String parentKey, T entity) throws Exception {
@@ -175,29 +364,31 @@ public class RelationalDao<T> implements ShardedDao<T> {
 
     public <U> U save(String parentKey, T entity, Function<T, U> handler) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, false, dao::save, entity, handler);
+        setBucketId(parentKey, entity);
+        return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, dao::save, entity, handler));
     }
 
     public boolean saveAll(String parentKey, Collection<T> entities) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, false, dao::saveAll, entities);
+        entities.forEach(entity -> setBucketId(parentKey, entity));
+        return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, dao::saveAll, entities));
     }
 
     <U> void save(LookupDao.LockedContext<U> context, T entity) {
         RelationalDaoPriv dao = daos.get(context.getShardId());
-        Transactions.execute(context.getSessionFactory(), false, dao::save, entity, t->t, false);
+        setBucketId(context.getKey(), entity);
+        Transactions.execute(transactionMetrics, context.getSessionFactory(), false, dao::save, entity, t->t, false);
     }
 
     <U> void save(LookupDao.LockedContext<U> context, T entity, Function<T, T> handler) {
         RelationalDaoPriv dao = daos.get(context.getShardId());
-        Transactions.execute(context.getSessionFactory(), false, dao::save, entity, handler, false);
+        setBucketId(context.getKey(), entity);
+        Transactions.execute(transactionMetrics, context.getSessionFactory(), false, dao::save, entity, handler, false);
     }
 
     <U> boolean update(LookupDao.LockedContext<U> context, Object id, Function<T, T> updater) {
         RelationalDaoPriv dao = daos.get(context.getShardId());
-        return update(context.getSessionFactory(), dao, id, updater, false);
+        return update(context.getSessionFactory(), dao, id, withBucketId(context.getKey(), updater), false);
     }
 
     <U> boolean update(LookupDao.LockedContext<U> context,
@@ -205,25 +396,35 @@ public class RelationalDao<T> implements ShardedDao<T> {
                        Function<T, T> updater,
                        BooleanSupplier updateNext) {
         final RelationalDaoPriv dao = daos.get(context.getShardId());
+        final Function<T, T> bucketedUpdater = withBucketId(context.getKey(), updater);
 
         try {
             final ScrollParamPriv scrollParam = ScrollParamPriv.builder()
                     .criteria(criteria)
                     .build();
 
-            return Transactions.<ScrollableResults, ScrollParamPriv, Boolean>execute(context.getSessionFactory(), true, dao::scroll, scrollParam, scrollableResults -> {
+            return Transactions.<ScrollableResults, ScrollParamPriv, Boolean>execute(transactionMetrics, context.getSessionFactory(), loadReadOnlyForUpdate(), dao::scroll, scrollParam, scrollableResults -> {
                 boolean updateNextObject = true;
+                //Entities are flushed and detached every chunk, so that long scrolls do not fill up the session
+                final List<Object> processed = new ArrayList<>();
                 try {
                     while(scrollableResults.next() && updateNextObject) {
                         final T entity = (T) scrollableResults.get(0);
                         if (null == entity) {
                             return false;
                         }
-                        final T newEntity = updater.apply(entity);
+                        final T newEntity = bucketedUpdater.apply(entity);
                         if(null == newEntity) {
+                            dao.discard(entity);
                             return false;
                         }
                         dao.update(entity, newEntity);
+                        processed.add(entity);
+                        processed.add(newEntity);
+                        if (processed.size() >= 2 * BULK_UPDATE_CHUNK_SIZE) {
+                            dao.flushAndEvict(processed);
+                            processed.clear();
+                        }
                         updateNextObject = updateNext.getAsBoolean();
                     }
                 }
@@ -239,24 +440,23 @@ public class RelationalDao<T> implements ShardedDao<T> {
 
     public boolean update(String parentKey, Object id, Function<T, T> updater) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return update(dao.sessionFactory, dao, id, updater, true);
+        return write(shardId, dao -> update(dao.sessionFactory, dao, id, withBucketId(parentKey, updater), true));
     }
 
     public <U> U runInSession(String id, Function<Session, U> handler) {
         int shardId = shardCalculator.shardId(id);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, handler);
+        return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, handler));
     }
 
     private boolean update(SessionFactory daoSessionFactory, RelationalDaoPriv dao, Object id, Function<T, T> updater, boolean completeTransaction){
         try {
-            return Transactions.<T, Object, Boolean>execute(daoSessionFactory, true, dao::get, id, (T entity) -> {
+            return Transactions.<T, Object, Boolean>execute(transactionMetrics, daoSessionFactory, loadReadOnlyForUpdate(), dao::get, id, (T entity) -> {
                 if(null == entity) {
                     return false;
                 }
                 T newEntity = updater.apply(entity);
                 if(null == newEntity) {
+                    dao.discard(entity);
                     return false;
                 }
                 dao.update(entity, newEntity);
@@ -269,42 +469,62 @@ public class RelationalDao<T> implements ShardedDao<T> {
 
     public boolean update(String parentKey, DetachedCriteria criteria, Function<T, T> updater) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        try {
-            SelectParamPriv selectParam = SelectParamPriv.builder()
-                                                .criteria(criteria)
-                                                .start(0)
-                                                .numRows(1)
-                                                .build();
-            return Transactions.<List<T>, SelectParamPriv, Boolean>execute(dao.sessionFactory, true, dao::select, selectParam, (List<T> entityList) -> {
-                if(entityList == null || entityList.isEmpty()) {
-                    return false;
-                }
-                T oldEntity = entityList.get(0);
-                if(null == oldEntity) {
-                    return false;
-                }
-                T newEntity = updater.apply(oldEntity);
-                if(null == newEntity) {
-                    return false;
-                }
-                dao.update(oldEntity, newEntity);
-                return true;
-            });
-        } catch (Exception e) {
-            throw new RuntimeException("Error updating entity with criteria: " + criteria, e);
-        }
+        final Function<T, T> bucketedUpdater = withBucketId(parentKey, updater);
+        return write(shardId, dao -> {
+            try {
+                SelectParamPriv selectParam = SelectParamPriv.builder()
+                                                    .criteria(criteria)
+                                                    .start(0)
+                                                    .numRows(1)
+                                                    .build();
+                return Transactions.<List<T>, SelectParamPriv, Boolean>execute(transactionMetrics, dao.sessionFactory, loadReadOnlyForUpdate(), dao::select, selectParam, (List<T> entityList) -> {
+                    if(entityList == null || entityList.isEmpty()) {
+                        return false;
+                    }
+                    T oldEntity = entityList.get(0);
+                    if(null == oldEntity) {
+                        return false;
+                    }
+                    T newEntity = bucketedUpdater.apply(oldEntity);
+                    if(null == newEntity) {
+                        dao.discard(oldEntity);
+                        return false;
+                    }
+                    dao.update(oldEntity, newEntity);
+                    return true;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Error updating entity with criteria: " + criteria, e);
+            }
+        });
     }
 
     public int updateUsingQuery(String parentKey, UpdateOperationMeta updateOperationMeta) {
         int shardId = shardCalculator.shardId(parentKey);
-        val dao = daos.get(shardId);
-        return Transactions.execute(dao.sessionFactory, false, dao::update, updateOperationMeta);
+        return write(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, false, dao::update, updateOperationMeta));
+    }
+
+    <U> List<T> select(LookupDao.ReadOnlyContext<U> context, DetachedCriteria criteria) throws Exception {
+        final RelationalDaoPriv dao = dao(context.getShardId(), context.getSessionFactory());
+        return Transactions.execute(transactionMetrics, context.getSessionFactory(), true, dao::selectAll, criteria, false);
+    }
+
+    <U> List<T> select(LookupDao.ReadOnlyContext<U> context,
+                       DetachedCriteria criteria,
+                       int first,
+                       int numResults) throws Exception {
+        final RelationalDaoPriv dao = dao(context.getShardId(), context.getSessionFactory());
+        SelectParamPriv selectParam = SelectParamPriv.<T>builder()
+                .criteria(criteria)
+                .start(first)
+                .numRows(numResults)
+                .build();
+        return Transactions.execute(transactionMetrics, context.getSessionFactory(), true, dao::select, selectParam, false);
     }
 
     public <U> int updateUsingQuery(LookupDao.LockedContext<U> lockedContext, UpdateOperationMeta updateOperationMeta) {
         val dao = daos.get(lockedContext.getShardId());
-        return Transactions.execute(lockedContext.getSessionFactory(), false, dao::update, updateOperationMeta, false);
+        return Transactions.execute(transactionMetrics, lockedContext.getSessionFactory(), false, dao::update, updateOperationMeta, false);
     }
 
 
@@ -313,6 +533,7 @@ public class RelationalDao<T> implements ShardedDao<T> {
                                Function<T, T> updater,
                                Supplier<T> entityGenerator) {
         final RelationalDaoPriv dao = daos.get(context.getShardId());
+        final Function<T, T> bucketedUpdater = withBucketId(context.getKey(), updater);
 
         try {
             final SelectParamPriv selectParam = SelectParamPriv.builder()
@@ -321,11 +542,12 @@ public class RelationalDao<T> implements ShardedDao<T> {
                     .numRows(1)
                     .build();
 
-            return Transactions.<List<T>, SelectParamPriv, Boolean>execute(context.getSessionFactory(), true, dao::select, selectParam, (List<T> entityList) -> {
+            return Transactions.<List<T>, SelectParamPriv, Boolean>execute(transactionMetrics, context.getSessionFactory(), loadReadOnlyForUpdate(), dao::select, selectParam, (List<T> entityList) -> {
                 if(entityList == null || entityList.isEmpty()) {
                     Preconditions.checkNotNull(entityGenerator, "Entity generator can't be null");
                     final T newEntity = entityGenerator.get();
                     Preconditions.checkNotNull(newEntity, "Generated entity can't be null");
+                    setBucketId(context.getKey(), newEntity);
                     dao.save(newEntity);
                     return true;
                 }
@@ -334,8 +556,9 @@ public class RelationalDao<T> implements ShardedDao<T> {
                 if(null == oldEntity) {
                     return false;
                 }
-                final T newEntity = updater.apply(oldEntity);
+                final T newEntity = bucketedUpdater.apply(oldEntity);
                 if(null == newEntity) {
+                    dao.discard(oldEntity);
                     return false;
                 }
                 dao.update(oldEntity, newEntity);
@@ -348,78 +571,424 @@ public class RelationalDao<T> implements ShardedDao<T> {
 
     public boolean updateAll(String parentKey, int start, int numRows, DetachedCriteria criteria, Function<T, T> updater) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        try {
-            SelectParamPriv selectParam = SelectParamPriv.builder()
-                    .criteria(criteria)
-                    .start(start)
-                    .numRows(numRows)
-                    .build();
-            return Transactions.<List<T>, SelectParamPriv, Boolean>execute(dao.sessionFactory, true, dao::select, selectParam, entityList -> {
-                if (entityList == null || entityList.isEmpty()) {
-                    return false;
-                }
-                for (T oldEntity : entityList) {
-                    if (null == oldEntity) {
+        final Function<T, T> bucketedUpdater = withBucketId(parentKey, updater);
+        return write(shardId, dao -> {
+            try {
+                SelectParamPriv selectParam = SelectParamPriv.builder()
+                        .criteria(criteria)
+                        .start(start)
+                        .numRows(numRows)
+                        .build();
+                return Transactions.<List<T>, SelectParamPriv, Boolean>execute(transactionMetrics, dao.sessionFactory, loadReadOnlyForUpdate(), dao::select, selectParam, entityList -> {
+                    if (entityList == null || entityList.isEmpty()) {
                         return false;
                     }
-                    T newEntity = updater.apply(oldEntity);
-                    if (null == newEntity) {
-                        return false;
+                    for (T oldEntity : entityList) {
+                        if (null == oldEntity) {
+                            return false;
+                        }
+                        T newEntity = bucketedUpdater.apply(oldEntity);
+                        if (null == newEntity) {
+                            dao.discard(oldEntity);
+                            return false;
+                        }
+                        dao.update(oldEntity, newEntity);
                     }
-                    dao.update(oldEntity, newEntity);
+                    return true;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Error updating entity with criteria: " + criteria, e);
+            }
+        });
+    }
+
+    /**
+     * Applies the updater to all entities matching the criteria in the shard of the parent key, in one transaction.
+     * Rows are scrolled through and the session is flushed and cleared every chunk of rows, so memory use does not
+     * grow with the number of rows. Entities for which the updater returns null are skipped.
+     * @param parentKey Key of the parent entity
+     * @param criteria The select criteria
+     * @param updater Receives each matching entity and returns the updated one or null to skip it
+     * @param chunkSize Number of rows fetched and flushed at a time
+     * @return Number of entities updated
+     */
+    public int updateAll(String parentKey, DetachedCriteria criteria, Function<T, T> updater, int chunkSize) {
+        int shardId = shardCalculator.shardId(parentKey);
+        final UpdateAllParamPriv<T> updateParam = UpdateAllParamPriv.<T>builder()
+                .criteria(criteria)
+                .updater(withBucketId(parentKey, updater))
+                .chunkSize(chunkSize)
+                .build();
+        return write(shardId, dao -> {
+            try {
+                return Transactions.execute(transactionMetrics, dao.sessionFactory, loadReadOnlyForUpdate(),
+                                            dao::updateAll, updateParam);
+            } catch (Exception e) {
+                throw new RuntimeException("Error updating entities with criteria: " + criteria, e);
+            }
+        });
+    }
+
+    /**
+     * Applies the updater to all entities matching the criteria in the shard of the parent key, committing every
+     * chunk in its own transaction. Chunks are read in order of id, after the id of the last entity of the previous
+     * chunk, so row locks are held for one chunk at a time and every chunk costs the same.
+     * After each chunk commits, its checkpoint is passed to the listener. A run that fails or is stopped can be resumed
+     * by passing the last checkpoint back in. Entities for which the updater returns null are skipped.
+     * <b>Note:</b> The criteria must not have orders of its own.
+     * @param parentKey Key of the parent entity
+     * @param criteria The select criteria
+     * @param updater Receives each matching entity and returns the updated one or null to skip it
+     * @param chunkSize Number of entities updated per transaction
+     * @param checkpoint Checkpoint to resume from or null to start from the beginning
+     * @param onChunkCommitted Receives the checkpoint after each committed chunk, null after the last one. May be null
+     *                         if checkpoints are not needed
+     * @return Number of entities updated
+     */
+    public int updateAllInChunks(String parentKey,
+                                 DetachedCriteria criteria,
+                                 Function<T, T> updater,
+                                 int chunkSize,
+                                 String checkpoint,
+                                 Consumer<String> onChunkCommitted) {
+        int shardId = shardCalculator.shardId(parentKey);
+        final KeysetCursor cursor = new KeysetCursor(entityClass, keyField.getName(), keyField, true);
+        final AtomicInteger updated = new AtomicInteger();
+        final Function<T, T> bucketedUpdater = withBucketId(parentKey, updater);
+        final Function<T, T> countingUpdater = entity -> {
+            final T newEntity = bucketedUpdater.apply(entity);
+            if (null != newEntity) {
+                updated.incrementAndGet();
+            }
+            return newEntity;
+        };
+        String next = checkpoint;
+        do {
+            final UpdateAllParamPriv<T> updateParam = UpdateAllParamPriv.<T>builder()
+                    .criteria(criteria)
+                    .updater(countingUpdater)
+                    .chunkSize(chunkSize)
+                    .cursor(cursor)
+                    .checkpoint(next)
+                    .build();
+            next = write(shardId, dao -> {
+                try {
+                    return Transactions.execute(transactionMetrics, dao.sessionFactory, loadReadOnlyForUpdate(),
+                                                dao::updateChunk, updateParam)
+                            .getNextToken();
+                } catch (Exception e) {
+                    throw new RuntimeException("Error updating entities with criteria: " + criteria, e);
                 }
-                return true;
             });
-        } catch (Exception e) {
-            throw new RuntimeException("Error updating entity with criteria: " + criteria, e);
-        }
+            if (null != onChunkCommitted) {
+                onChunkCommitted.accept(next);
+            }
+        } while (null != next);
+        return updated.get();
     }
 
     public List<T> select(String parentKey, DetachedCriteria criteria, int first, int numResults) throws Exception {
+        if (readMode == ReadMode.STATELESS) {
+            int shardId = shardCalculator.shardId(parentKey);
+            SelectParamPriv selectParam = SelectParamPriv.<T>builder()
+                    .criteria(criteria)
+                    .start(first)
+                    .numRows(numResults)
+                    .build();
+            return read(shardId, dao -> Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::select, selectParam));
+        }
         return select(parentKey, criteria, first, numResults, t-> t);
     }
 
     public<U> U select(String parentKey, DetachedCriteria criteria, int first, int numResults, Function<List<T>, U> handler) throws Exception {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
         SelectParamPriv selectParam = SelectParamPriv.<T>builder()
                 .criteria(criteria)
                 .start(first)
                 .numRows(numResults)
                 .build();
-        return Transactions.execute(dao.sessionFactory, true, dao::select, selectParam, handler);
+        return read(shardId, dao -> Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::select, selectParam, handler));
+    }
+
+    /**
+     * Keyset (seek) pagination over the entities matching the criteria in the shard of the parent key, in ascending
+     * order of the sort field. Unlike offset based paging, every page costs the same however deep it is.
+     * See {@link #selectPage(String, DetachedCriteria, String, boolean, String, int)}.
+     */
+    public KeysetPage<T> selectPage(String parentKey,
+                                    DetachedCriteria criteria,
+                                    String sortField,
+                                    String afterToken,
+                                    int pageSize) throws Exception {
+        return selectPage(parentKey, criteria, sortField, true, afterToken, pageSize);
+    }
+
+    /**
+     * Keyset (seek) pagination over the entities matching the criteria in the shard of the parent key.
+     * Entities are ordered by the sort field and then by id, and a page starts right after the (sort value, id) of the
+     * last entity of the previous page. For pages to be cheap, index the table on (sort field, id).
+     * <b>Note:</b> The sort field must be a non null field of the entity and the criteria must not have orders of its
+     * own. The criteria passed in is not changed.
+     * @param parentKey Key of the parent entity
+     * @param criteria The select criteria
+     * @param sortField Name of the field to sort by
+     * @param ascending Sort direction for both the sort field and id
+     * @param afterToken Token from the previous page or null for the first page
+     * @param pageSize Maximum number of entities in the page
+     * @return Page with the entities and the token for the next page
+     */
+    public KeysetPage<T> selectPage(String parentKey,
+                                    DetachedCriteria criteria,
+                                    String sortField,
+                                    boolean ascending,
+                                    String afterToken,
+                                    int pageSize) throws Exception {
+        final KeysetCursor cursor = new KeysetCursor(entityClass, sortField, keyField, ascending);
+        return cursor.page(select(parentKey, cursor.criteria(criteria, afterToken), 0, pageSize + 1), pageSize);
+    }
+
+    /**
+     * Selects the children of several parents with one query per shard instead of one per parent. Parent keys are
+     * grouped by shard and the shards are queried in parallel.
+     * <pre>
+     * relationalDao.selectForParents(phones,
+     *                                shardPhones -&gt; DetachedCriteria.forClass(Transaction.class)
+     *                                        .add(Restrictions.in("phone", shardPhones)),
+     *                                Transaction::getPhone);
+     * </pre>
+     * @param parentKeys Keys of the parent entities
+     * @param criteriaBuilder Builds the select criteria for the parent keys that live on one shard
+     * @param parentKeyExtractor Returns the parent key of a selected entity
+     * @return Selected entities grouped by parent key, in the order of the parent keys. Parents without matching
+     * entities are mapped to an empty list.
+     */
+    public Map<String, List<T>> selectForParents(Collection<String> parentKeys,
+                                                 Function<Collection<String>, DetachedCriteria> criteriaBuilder,
+                                                 Function<T, String> parentKeyExtractor) {
+        final Map<Integer, List<String>> keysByShard = parentKeys.stream()
+                .distinct()
+                .collect(Collectors.groupingBy(shardCalculator::shardId, Collectors.toList()));
+        final ExecutorService fanoutExecutor = shardCalculator.getShardManager().getFanoutExecutor();
+        final Map<Integer, List<T>> entitiesByShard = ShardFanout.execute(fanoutExecutor, keysByShard, (shardId, keys) -> {
+            final DetachedCriteria criteria = criteriaBuilder.apply(keys);
+            try {
+                return read(shardId, dao -> readMode == ReadMode.STATELESS
+                        ? Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::selectAll, criteria)
+                        : Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::selectAll, criteria));
+            } catch (Exception e) {
+                throw new RuntimeException("Error selecting entities with criteria: " + criteria, e);
+            }
+        });
+        final Map<String, List<T>> result = new LinkedHashMap<>();
+        parentKeys.forEach(parentKey -> result.put(parentKey, new ArrayList<>()));
+        entitiesByShard.values()
+                .stream()
+                .flatMap(Collection::stream)
+                .forEach(entity -> result.computeIfAbsent(parentKeyExtractor.apply(entity), k -> new ArrayList<>())
+                        .add(entity));
+        return result;
     }
 
     public long count(String parentKey, DetachedCriteria criteria) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        return Transactions.<Long, DetachedCriteria>execute(dao.sessionFactory, true, dao::count, criteria);
+        return read(shardId, dao -> Transactions.<Long, DetachedCriteria>execute(transactionMetrics, dao.sessionFactory, true, dao::count, criteria));
     }
 
     public boolean exists(String parentKey, Object key) {
         int shardId = shardCalculator.shardId(parentKey);
-        RelationalDaoPriv dao = daos.get(shardId);
-        Optional<T> result = Transactions.<T, Object>executeAndResolve(dao.sessionFactory, true, dao::get, key);
-        return result.isPresent();
+        return read(shardId, dao -> Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::exists, key));
     }
 
     public List<T> scatterGather(DetachedCriteria criteria, int start, int numRows) {
-        return daos.stream().map(dao -> {
+        return IntStream.range(0, daos.size()).mapToObj(shardId -> {
             try {
                 SelectParamPriv selectParam = SelectParamPriv.<T>builder()
                         .criteria(criteria)
                         .start(start)
                         .numRows(numRows)
                         .build();
-                return Transactions.execute(dao.sessionFactory, true, dao::select, selectParam);
+                return read(shardId, dao -> readMode == ReadMode.STATELESS
+                        ? Transactions.executeRead(transactionMetrics, dao.sessionFactory, dao::select, selectParam)
+                        : Transactions.execute(transactionMetrics, dao.sessionFactory, true, dao::select, selectParam));
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }).flatMap(Collection::stream).collect(Collectors.toList());
     }
 
+    /**
+     * Streams the entities matching the criteria in the shard of the parent key, without loading them all in memory.
+     * Rows are fetched {@value ScrollingStreams#DEFAULT_FETCH_SIZE} at a time.
+     * <b>Note:</b> The stream holds a session and a connection until it is fully read or closed, and a bulkhead slot
+     * of the shard until it is closed. Use it in a try-with-resources block. Lazy loading does not work on streamed
+     * entities.
+     * @param parentKey Key of the parent entity
+     * @param criteria The select criteria
+     * @return Lazily read stream of matching entities
+     */
+    public Stream<T> stream(String parentKey, DetachedCriteria criteria) {
+        return stream(parentKey, criteria, ScrollingStreams.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Same as {@link #stream(String, DetachedCriteria)}, with the given JDBC fetch size. The session is also cleared
+     * every fetch size rows.
+     */
+    public Stream<T> stream(String parentKey, DetachedCriteria criteria, int fetchSize) {
+        int shardId = shardCalculator.shardId(parentKey);
+        return openStream(shardId, criteria, fetchSize);
+    }
+
+    /**
+     * Streams the entities matching the criteria across all shards, one shard after the other.
+     * See {@link #stream(String, DetachedCriteria)}.
+     * @param criteria The select criteria
+     * @return Lazily read stream of matching entities
+     */
+    public Stream<T> streamAll(DetachedCriteria criteria) {
+        return streamAll(criteria, ScrollingStreams.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Same as {@link #streamAll(DetachedCriteria)}, with the given JDBC fetch size.
+     */
+    public Stream<T> streamAll(DetachedCriteria criteria, int fetchSize) {
+        return ScrollingStreams.concat(IntStream.range(0, daos.size())
+                .<Supplier<Stream<T>>>mapToObj(shardId -> () -> openStream(shardId, criteria, fetchSize))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Streams the entities whose parent keys fall in a range of buckets (see
+     * {@link io.appform.dropwizard.sharding.sharding.ShardManager#numBuckets()}). Only the shards owning the buckets
+     * are read. Needs a field annotated with {@link io.appform.dropwizard.sharding.sharding.BucketId} in the entity,
+     * as entities do not carry their parent keys otherwise. The stream must be closed once done.
+     * @param fromBucket first bucket of the range
+     * @param toBucket last bucket of the range, inclusive
+     * @param criteria The select criteria
+     * @return Lazily read stream of matching entities in the buckets
+     */
+    public Stream<T> scanBuckets(int fromBucket, int toBucket, DetachedCriteria criteria) {
+        return scanBuckets(fromBucket, toBucket, criteria, ScrollingStreams.DEFAULT_FETCH_SIZE);
+    }
+
+    public Stream<T> scanBuckets(int fromBucket, int toBucket, DetachedCriteria criteria, int fetchSize) {
+        bucketIdField.checkPresent();
+        final DetachedCriteria bucketCriteria = bucketIdField.inRange(criteria, fromBucket, toBucket);
+        return ScrollingStreams.concat(shardCalculator.getShardManager()
+                .shardsForBuckets(fromBucket, toBucket)
+                .stream()
+                .<Supplier<Stream<T>>>map(shardId -> () -> openStream(shardId, bucketCriteria, fetchSize))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Counts the entities matching the criteria in each bucket across all shards. Needs a field annotated with
+     * {@link io.appform.dropwizard.sharding.sharding.BucketId} in the entity. Buckets without entities are left out.
+     * @param criteria The select criteria
+     * @return Number of entities by bucket
+     */
+    public Map<Integer, Long> countPerBucket(DetachedCriteria criteria) {
+        bucketIdField.checkPresent();
+        final Map<Integer, Long> counts = new TreeMap<>();
+        IntStream.range(0, daos.size())
+                .mapToObj(shardId -> read(shardId, dao -> Transactions.execute(transactionMetrics, 
+                        dao.sessionFactory, true,
+                        shardCriteria -> bucketIdField.countPerBucket(dao.sessionFactory.getCurrentSession(),
+                                                                      shardCriteria),
+                        criteria)))
+                .forEach(shardCounts -> shardCounts.forEach(
+                        (bucketId, count) -> counts.merge(bucketId, count, Long::sum)));
+        return counts;
+    }
+
     protected Field getKeyField() {
         return this.keyField;
     }
+
+    /**
+     * Entities are loaded read only for updates, except for {@link UpdateMode#DIRTY_COLUMNS}, which needs the state
+     * they were loaded with to find the changed columns.
+     */
+    private boolean loadReadOnlyForUpdate() {
+        return updateMode != UpdateMode.DIRTY_COLUMNS;
+    }
+
+    /**
+     * Sets the bucket of the parent key in the field annotated with
+     * {@link io.appform.dropwizard.sharding.sharding.BucketId}, if the entity has one.
+     */
+    private void setBucketId(String parentKey, T entity) {
+        if (null != parentKey) {
+            bucketIdField.set(entity, shardCalculator.bucketId(parentKey));
+        }
+    }
+
+    /**
+     * Sets the bucket of the parent key on the entities returned by the updater, as updaters can return new instances.
+     * This also fills in the bucket of rows saved before the entity had a bucket id field.
+     */
+    private Function<T, T> withBucketId(String parentKey, Function<T, T> updater) {
+        if (!bucketIdField.isPresent()) {
+            return updater;
+        }
+        return entity -> {
+            final T newEntity = updater.apply(entity);
+            setBucketId(parentKey, newEntity);
+            return newEntity;
+        };
+    }
+
+    /**
+     * Runs a read only operation on the least loaded replica of the shard or on the primary if the shard has no
+     * replicas or the caller has asked for reads from primary.
+     */
+    private <U> U read(int shardId, Function<RelationalDaoPriv, U> reader) {
+        return guard(shardId,
+                () -> replicaManager.read(shardId, lease -> reader.apply(dao(shardId, lease))));
+    }
+
+    /**
+     * Same as {@link #read(int, Function)} for streams over the rows matching the criteria. The bulkhead slot of the
+     * shard and the lease on the replica are held until the stream is closed.
+     */
+    private Stream<T> openStream(int shardId, DetachedCriteria criteria, int fetchSize) {
+        return shardCalculator.getShardManager().guardStream(shardId, () -> replicaManager.stream(
+                shardId, lease -> ScrollingStreams.<T>open(dao(shardId, lease).sessionFactory, criteria, fetchSize)));
+    }
+
+    /**
+     * Finds the dao for the primary or replica of the shard that the session factory belongs to
+     */
+    private RelationalDaoPriv dao(int shardId, SessionFactory sessionFactory) {
+        final RelationalDaoPriv primary = daos.get(shardId);
+        if (primary.sessionFactory == sessionFactory) {
+            return primary;
+        }
+        return replicaDaos.get(shardId)
+                .stream()
+                .filter(replica -> replica.sessionFactory == sessionFactory)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Session factory does not belong to shard " + shardId + " of this dao"));
+    }
+
+    private RelationalDaoPriv dao(int shardId, ReplicaManager.Lease lease) {
+        return lease.isPrimary()
+                ? daos.get(shardId)
+                : replicaDaos.get(shardId).get(lease.getReplicaId());
+    }
+
+    /**
+     * Runs a write on the primary of the shard and records it in the current {@link ConsistencySession} once committed.
+     */
+    private <U> U write(int shardId, Function<RelationalDaoPriv, U> writer) {
+        final U result = guard(shardId, () -> writer.apply(daos.get(shardId)));
+        ConsistencySession.recordCommit(shardId);
+        return result;
+    }
+
+    private <U> U guard(int shardId, Supplier<U> call) {
+        return shardCalculator.getShardManager().guard(shardId, call);
+    }
 }
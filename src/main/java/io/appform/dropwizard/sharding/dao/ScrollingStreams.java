@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.resource.transaction.spi.TransactionStatus;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams backed by forward only {@link ScrollableResults}. Each stream runs on its own read only session, which is
+ * not bound to the thread and stays open until the stream is closed or fully read. The session is cleared every
+ * fetch size rows so that memory use stays flat, so lazy associations cannot be loaded on streamed entities.
+ */
+@Slf4j
+final class ScrollingStreams {
+    static final int DEFAULT_FETCH_SIZE = 500;
+
+    private ScrollingStreams() {
+    }
+
+    /**
+     * Opens a stream over the rows matching the criteria in a shard.
+     */
+    static <T> Stream<T> open(SessionFactory sessionFactory, DetachedCriteria criteria, int fetchSize) {
+        final Session session = sessionFactory.withOptions()
+                .flushMode(FlushMode.MANUAL)
+                .openSession();
+        Transaction transaction = null;
+        try {
+            session.setDefaultReadOnly(true);
+            transaction = session.beginTransaction();
+            final ScrollableResults results = criteria.getExecutableCriteria(session)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            final ScrollingIterator<T> iterator
+                    = new ScrollingIterator<>(session, transaction, results, fetchSize);
+            return stream(iterator).onClose(iterator::close);
+        } catch (RuntimeException e) {
+            close(session, transaction);
+            throw e;
+        }
+    }
+
+    /**
+     * Concatenates streams over shards. The stream for a shard is opened only once the one before it has been read.
+     */
+    static <T> Stream<T> concat(List<Supplier<Stream<T>>> shardStreams) {
+        final ConcatenatingIterator<T> iterator = new ConcatenatingIterator<>(shardStreams.iterator());
+        return stream(iterator).onClose(iterator::close);
+    }
+
+    private static <T> Stream<T> stream(Iterator<T> iterator) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static void close(Session session, Transaction transaction) {
+        try {
+            if (null != transaction && transaction.getStatus() == TransactionStatus.ACTIVE) {
+                transaction.commit();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error ending stream transaction", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    private static final class ScrollingIterator<T> implements Iterator<T> {
+        private final Session session;
+        private final Transaction transaction;
+        private final ScrollableResults results;
+        private final int clearEvery;
+        private int read;
+        private Boolean hasNext;
+        private boolean closed;
+
+        private ScrollingIterator(Session session, Transaction transaction, ScrollableResults results, int clearEvery) {
+            this.session = session;
+            this.transaction = transaction;
+            this.results = results;
+            this.clearEvery = Math.max(clearEvery, 1);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (null == hasNext) {
+                try {
+                    hasNext = !closed && results.next();
+                } catch (RuntimeException e) {
+                    close();
+                    throw e;
+                }
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            if (++read % clearEvery == 0) {
+                session.clear();
+            }
+            return (T) results.get(0);
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                results.close();
+            } finally {
+                ScrollingStreams.close(session, transaction);
+            }
+        }
+    }
+
+    private static final class ConcatenatingIterator<T> implements Iterator<T> {
+        private final Iterator<Supplier<Stream<T>>> shardStreams;
+        private Stream<T> current;
+        private Iterator<T> currentIterator;
+
+        private ConcatenatingIterator(Iterator<Supplier<Stream<T>>> shardStreams) {
+            this.shardStreams = shardStreams;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (null == currentIterator || !currentIterator.hasNext()) {
+                close();
+                if (!shardStreams.hasNext()) {
+                    return false;
+                }
+                current = shardStreams.next().get();
+                currentIterator = current.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+        }
+
+        private void close() {
+            if (null != current) {
+                current.close();
+                current = null;
+                currentIterator = null;
+            }
+        }
+    }
+}
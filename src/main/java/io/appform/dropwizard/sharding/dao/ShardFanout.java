@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import com.google.common.base.Throwables;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReadPreference;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.sharding.ShardManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+
+/**
+ * Runs a call on several shards in parallel on the fanout executor of the {@link ShardManager}. The calls see the
+ * {@link ConsistencySession} and {@link ReadPreference} of the calling thread. The call for the last shard, and calls
+ * that find the executor busy or absent, run on the calling thread.
+ */
+final class ShardFanout {
+    private ShardFanout() {
+    }
+
+    static <K, V> Map<Integer, V> execute(ExecutorService executor,
+                                          Map<Integer, K> inputs,
+                                          BiFunction<Integer, K, V> call) {
+        final ConsistencySession consistencySession = ConsistencySession.current();
+        final ReadPreference readPreference = ReadPreferences.current();
+        final List<Map.Entry<Integer, K>> entries = new ArrayList<>(inputs.entrySet());
+        final Map<Integer, Future<V>> futures = new HashMap<>();
+        final Map<Integer, V> results = new HashMap<>();
+        try {
+            for (int i = 0; i < entries.size() - 1; i++) {
+                final Map.Entry<Integer, K> entry = entries.get(i);
+                final Future<V> future = submit(executor, () -> ReadPreferences.withPreference(
+                        readPreference,
+                        () -> null == consistencySession
+                              ? call.apply(entry.getKey(), entry.getValue())
+                              : consistencySession.execute(() -> call.apply(entry.getKey(), entry.getValue()))));
+                if (null != future) {
+                    futures.put(entry.getKey(), future);
+                } else {
+                    results.put(entry.getKey(), call.apply(entry.getKey(), entry.getValue()));
+                }
+            }
+            if (!entries.isEmpty()) {
+                final Map.Entry<Integer, K> last = entries.get(entries.size() - 1);
+                results.put(last.getKey(), call.apply(last.getKey(), last.getValue()));
+            }
+            for (Map.Entry<Integer, Future<V>> future : futures.entrySet()) {
+                results.put(future.getKey(), future.getValue().get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            futures.values().forEach(future -> future.cancel(false));
+        }
+    }
+
+    /**
+     * @return null if the call has to run on the calling thread
+     */
+    private static <V> Future<V> submit(ExecutorService executor, Callable<V> call) {
+        if (null == executor) {
+            return null;
+        }
+        try {
+            return executor.submit(call);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+/**
+ * How daos write back entities returned by updaters.
+ */
+public enum UpdateMode {
+    /**
+     * The loaded entity is evicted and the updated one is reattached with {@link org.hibernate.Session#update(Object)},
+     * which writes every column of the row
+     */
+    FULL,
+    /**
+     * The updated entity is compared with the state the entity was loaded with and only the changed columns are
+     * written, with a single UPDATE by id. Entity listeners and generated values are bypassed for such updates.
+     * Falls back to {@link #FULL} for versioned entities and when a changed property is a collection or an embedded
+     * component.
+     */
+    DIRTY_COLUMNS
+}
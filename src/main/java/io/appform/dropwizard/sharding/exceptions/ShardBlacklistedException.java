@@ -24,4 +24,8 @@ public class ShardBlacklistedException extends RuntimeException {
     public ShardBlacklistedException(int shard) {
         super(String.format("Shard %d is blacklisted", shard));
     }
+
+    protected ShardBlacklistedException(String message) {
+        super(message);
+    }
 }
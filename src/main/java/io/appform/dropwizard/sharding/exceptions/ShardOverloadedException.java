@@ -0,0 +1,27 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.exceptions;
+
+/**
+ * Thrown when a call to a shard is rejected because the shard is already running the maximum allowed number of calls
+ */
+public class ShardOverloadedException extends RuntimeException {
+    public ShardOverloadedException(int shard) {
+        super(String.format("Shard %d is overloaded", shard));
+    }
+}
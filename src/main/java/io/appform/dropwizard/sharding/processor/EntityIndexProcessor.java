@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.processor;
+
+import io.appform.dropwizard.sharding.utils.EntityIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the names of the classes annotated with {@link javax.persistence.Entity} to the {@link EntityIndex} of the
+ * module being compiled. Entities already in the index from an earlier incremental compile are kept as long as
+ * their classes still exist.
+ */
+@SupportedAnnotationTypes(EntityIndexProcessor.ENTITY)
+public class EntityIndexProcessor extends AbstractProcessor {
+    static final String ENTITY = "javax.persistence.Entity";
+
+    private final Set<String> entities = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        annotations.forEach(annotation -> roundEnv.getElementsAnnotatedWith(annotation)
+                .stream()
+                .filter(element -> element.getKind().isClass())
+                .map(element -> processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString())
+                .forEach(entities::add));
+        if (roundEnv.processingOver() && !entities.isEmpty()) {
+            write();
+        }
+        return false;
+    }
+
+    private void write() {
+        readExisting();
+        try {
+            final FileObject index = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", EntityIndex.LOCATION);
+            try (Writer writer = index.openWriter()) {
+                for (String entity : entities) {
+                    writer.write(entity);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Error writing entity index: " + e);
+        }
+    }
+
+    private void readExisting() {
+        try {
+            final FileObject existing = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", EntityIndex.LOCATION);
+            try (Reader reader = existing.openReader(true);
+                 BufferedReader lines = new BufferedReader(reader)) {
+                lines.lines()
+                        .map(String::trim)
+                        .filter(name -> !name.isEmpty() && isEntity(name))
+                        .forEach(entities::add);
+            }
+        } catch (IOException e) {
+            //No index from an earlier compile
+        }
+    }
+
+    private boolean isEntity(String name) {
+        final TypeElement type = processingEnv.getElementUtils().getTypeElement(name.replace('$', '.'));
+        return null != type && type.getAnnotationMirrors()
+                .stream()
+                .anyMatch(mirror -> ((TypeElement) mirror.getAnnotationType().asElement())
+                        .getQualifiedName()
+                        .contentEquals(ENTITY));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.replicas;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opt-in read-your-writes consistency for replica reads.
+ * Writes made by daos while a session is bound record the commit time on the shard they were made on. The commit
+ * time is the wall clock time of the node that made the write, so it is only as accurate as the clocks of the nodes
+ * the token travels between. See {@link io.appform.dropwizard.sharding.config.ReplicaConfig#getMaxClockSkewMs()}.
+ * Reads made while the session is bound go to a replica of a shard only if the replica has caught up with the
+ * last write on that shard in this session, as judged by the {@link ReplicaManager}. Otherwise they are served by
+ * the primary.
+ * The session can be carried across requests as an opaque token using {@link #token()} and {@link #fromToken(String)}.
+ * <pre>
+ * ConsistencySession session = ConsistencySession.fromToken(tokenFromRequest);
+ * session.execute(() -> lookupDao.save(entity));
+ * return tokenForResponse(session.token());
+ * </pre>
+ */
+@Slf4j
+public class ConsistencySession {
+    private static final ThreadLocal<ConsistencySession> CURRENT = new ThreadLocal<>();
+    private static final Joiner.MapJoiner TOKEN_JOINER = Joiner.on(',').withKeyValueSeparator(':');
+    private static final Splitter.MapSplitter TOKEN_SPLITTER = Splitter.on(',')
+            .omitEmptyStrings()
+            .withKeyValueSeparator(':');
+
+    private final ConcurrentMap<Integer, Long> positions = new ConcurrentHashMap<>();
+
+    public static ConsistencySession current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Restore a session from a token returned by {@link #token()}. Null, empty or malformed tokens result in an empty
+     * session.
+     */
+    public static ConsistencySession fromToken(String token) {
+        final ConsistencySession session = new ConsistencySession();
+        if (Strings.isNullOrEmpty(token)) {
+            return session;
+        }
+        try {
+            TOKEN_SPLITTER.split(token)
+                    .forEach((shard, position) -> session.recordWrite(Integer.parseInt(shard), Long.parseLong(position)));
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed consistency token: {}", token);
+            session.positions.clear();
+        }
+        return session;
+    }
+
+    /**
+     * Runs the dao calls made inside the block with this session bound to the calling thread.
+     * @param operations Block making the dao calls
+     * @return Whatever is returned by the block
+     * @throws Exception if the block throws
+     */
+    public <T> T execute(Callable<T> operations) throws Exception {
+        final ConsistencySession previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return operations.call();
+        } finally {
+            if (null == previous) {
+                CURRENT.remove();
+            }
+            else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Records a write committed on the primary of a shard in the session bound to the calling thread, if any.
+     * Needs to be called after the transaction has been committed.
+     */
+    public static void recordCommit(int shardId) {
+        final ConsistencySession session = CURRENT.get();
+        if (null != session) {
+            session.recordWrite(shardId, System.currentTimeMillis());
+        }
+    }
+
+    public void recordWrite(int shardId, long position) {
+        positions.merge(shardId, position, Math::max);
+    }
+
+    /**
+     * @return Commit time of the last write made on the shard in this session, if any
+     */
+    public OptionalLong lastWrite(int shardId) {
+        final Long position = positions.get(shardId);
+        return null == position ? OptionalLong.empty() : OptionalLong.of(position);
+    }
+
+    /**
+     * @return An opaque token representing the writes made in this session
+     */
+    public String token() {
+        final Map<Integer, Long> sorted = new TreeMap<>(positions);
+        return TOKEN_JOINER.join(sorted);
+    }
+}
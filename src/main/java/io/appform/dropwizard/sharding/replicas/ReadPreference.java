@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.replicas;
+
+/**
+ * Where read only dao operations are sent when a shard has read replicas configured.
+ */
+public enum ReadPreference {
+    /**
+     * Always read from the primary of the shard
+     */
+    PRIMARY,
+
+    /**
+     * Read from the least loaded replica of the shard. Falls back to primary if shard has no replicas.
+     */
+    REPLICA
+}
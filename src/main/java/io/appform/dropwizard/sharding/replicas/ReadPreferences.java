@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.replicas;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Scopes the {@link ReadPreference} for dao reads made on the calling thread.
+ * Reads go to replicas by default. Use {@link #fromPrimary(Callable)} for reads that need to see the latest writes.
+ */
+public class ReadPreferences {
+    private static final ThreadLocal<ReadPreference> CURRENT = ThreadLocal.withInitial(() -> ReadPreference.REPLICA);
+
+    private ReadPreferences() {}
+
+    public static ReadPreference current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs all dao reads made inside the block against the primary of the respective shards.
+     * @param reads Block making the dao calls
+     * @return Whatever is returned by the block
+     * @throws Exception if the block throws
+     */
+    public static <T> T fromPrimary(Callable<T> reads) throws Exception {
+        return withPreference(ReadPreference.PRIMARY, reads);
+    }
+
+    public static <T> T withPreference(ReadPreference readPreference, Callable<T> reads) throws Exception {
+        final ReadPreference previous = CURRENT.get();
+        CURRENT.set(readPreference);
+        try {
+            return reads.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
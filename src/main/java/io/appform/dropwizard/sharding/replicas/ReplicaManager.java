@@ -0,0 +1,551 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.replicas;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.codahale.metrics.Snapshot;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.appform.dropwizard.sharding.config.ReplicaConfig;
+import io.appform.dropwizard.sharding.utils.Transactions;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Holds the read replicas for all shards and balances reads between the replicas of a shard.
+ * The replica with the least number of outstanding requests is chosen. Ties are broken in a round robin manner.
+ * When a {@link ConsistencySession} is bound, only replicas that have caught up with the last write made in the
+ * session on the shard are considered. Whether a replica has caught up is judged from its replication lag, which is
+ * polled from the replica using {@link ReplicaConfig#getReplicationLagQuery()}. Without the query the lag is assumed
+ * to be {@link ReplicaConfig#getMaxReplicationLagMs()}, which makes the guarantee a timeout after each write.
+ * If hedging is enabled, a read that has not completed within the observed p95 latency of the shard is sent to a
+ * second replica and the result that arrives first is used. See {@link #hedgedRead(int, Function)}.
+ * <b>Note:</b> A single instance is shared across all daos of a bundle so that the load on a replica is tracked
+ * across all entities.
+ */
+@Slf4j
+public class ReplicaManager implements Managed {
+
+    private static final int MIN_LATENCY_SAMPLES = 100;
+    private static final long LATENCY_REFRESH_INTERVAL_MS = 1000;
+
+    private final List<List<SessionFactory>> replicaSessionFactories;
+    private final List<AtomicIntegerArray> outstandingRequests;
+    private final List<AtomicLongArray> replicationLags;
+    private final List<AtomicLongArray> lagMeasuredAt;
+    private final List<ShardLatency> latencies;
+    private final AtomicInteger tieBreaker = new AtomicInteger();
+    private final HedgeBudget hedgeBudget;
+    private final ExecutorService hedgeExecutor;
+    private final ReplicaConfig replicaConfig;
+    private final String namespace;
+    private final boolean lagPolled;
+    private ScheduledExecutorService lagPoller;
+
+    public ReplicaManager(List<List<SessionFactory>> replicaSessionFactories) {
+        this(replicaSessionFactories, ReplicaConfig.builder().build());
+    }
+
+    public ReplicaManager(List<List<SessionFactory>> replicaSessionFactories, ReplicaConfig replicaConfig) {
+        this(replicaSessionFactories, replicaConfig, new MetricRegistry(), "default");
+    }
+
+    /**
+     * @param replicaSessionFactories Session factories for the replicas of each shard, indexed by shard id.
+     *                                Shards without replicas have an empty list.
+     * @param replicaConfig Config for replica reads
+     * @param metrics Registry to publish replica latency and hedging metrics to
+     * @param namespace Namespace of the bundle, used to name the metrics
+     */
+    public ReplicaManager(
+            List<List<SessionFactory>> replicaSessionFactories,
+            ReplicaConfig replicaConfig,
+            MetricRegistry metrics,
+            String namespace) {
+        this.replicaSessionFactories = replicaSessionFactories;
+        this.replicaConfig = replicaConfig;
+        this.namespace = namespace;
+        this.lagPolled = !Strings.isNullOrEmpty(replicaConfig.getReplicationLagQuery());
+        this.outstandingRequests = replicaSessionFactories.stream()
+                .map(replicas -> new AtomicIntegerArray(replicas.size()))
+                .collect(Collectors.toList());
+        this.replicationLags = replicaSessionFactories.stream()
+                .map(replicas -> {
+                    final AtomicLongArray lags = new AtomicLongArray(replicas.size());
+                    for (int i = 0; i < replicas.size(); i++) {
+                        lags.set(i, replicaConfig.getMaxReplicationLagMs());
+                    }
+                    return lags;
+                })
+                .collect(Collectors.toList());
+        this.lagMeasuredAt = replicaSessionFactories.stream()
+                .map(replicas -> new AtomicLongArray(replicas.size()))
+                .collect(Collectors.toList());
+        for (int shardId = 0; shardId < replicaSessionFactories.size(); shardId++) {
+            final AtomicLongArray lags = replicationLags.get(shardId);
+            for (int replicaId = 0; replicaId < lags.length(); replicaId++) {
+                final int replica = replicaId;
+                metrics.gauge(MetricRegistry.name(ReplicaManager.class, namespace, "shard-" + shardId,
+                                                  "replica-" + replicaId, "replicationLag"),
+                              () -> () -> lags.get(replica));
+            }
+        }
+        final long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(replicaConfig.getMinHedgeDelayMs());
+        this.latencies = IntStream.range(0, replicaSessionFactories.size())
+                .mapToObj(shardId -> new ShardLatency(metrics, namespace, shardId, minHedgeDelayNanos))
+                .collect(Collectors.toList());
+        this.hedgeBudget = new HedgeBudget(replicaConfig.getHedgeBudgetRatio());
+        this.hedgeExecutor = replicaConfig.isHedgedReads()
+                ? new ThreadPoolExecutor(replicaConfig.getHedgeThreads(), replicaConfig.getHedgeThreads(),
+                                         60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                                         new ThreadFactoryBuilder()
+                                                 .setNameFormat("hedged-read-" + namespace + "-%d")
+                                                 .setDaemon(true)
+                                                 .build())
+                : null;
+    }
+
+    public static ReplicaManager noReplicas() {
+        return new ReplicaManager(Collections.emptyList());
+    }
+
+    public List<SessionFactory> replicas(int shardId) {
+        return shardId < replicaSessionFactories.size()
+                ? replicaSessionFactories.get(shardId)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Selects the replica with least outstanding requests for the shard. The primary is selected if the shard has no
+     * replicas, the caller has asked for reads from primary or no replica has caught up with the writes in the
+     * current {@link ConsistencySession}. The lease must be closed once the read completes.
+     * @param shardId Shard to read from
+     * @return Lease on the selected replica or the primary
+     */
+    public Lease acquire(int shardId) {
+        return acquire(shardId, -1);
+    }
+
+    /**
+     * Runs a read on the lease acquired for the shard and records the latency of reads served by replicas.
+     */
+    public <U> U read(int shardId, Function<Lease, U> reader) {
+        try (Lease lease = acquire(shardId)) {
+            return timed(shardId, lease, reader);
+        }
+    }
+
+    /**
+     * Same as {@link #read(int, Function)} for reads that return a stream. The lease is held until the stream is
+     * closed. Stream reads are not timed, as the time taken to read them is up to the caller.
+     */
+    public <U> Stream<U> stream(int shardId, Function<Lease, Stream<U>> opener) {
+        final Lease lease = acquire(shardId);
+        try {
+            return opener.apply(lease).onClose(lease::close);
+        } catch (RuntimeException | Error e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #read(int, Function)}, but if the read on the selected replica has not completed within the
+     * observed p95 latency of the shard, the read is also sent to another replica. The first result is returned and
+     * the slower read is cancelled. Hedging is skipped when it is disabled, the shard has less than two replicas,
+     * not enough latency samples have been seen yet or the hedge budget has been used up.
+     * <b>Note:</b> The reader runs on a different thread and can run twice. It must not have side effects and must
+     * not depend on thread local state.
+     */
+    public <U> U hedgedRead(int shardId, Function<Lease, U> reader) {
+        if (null == hedgeExecutor || replicas(shardId).size() < 2) {
+            return read(shardId, reader);
+        }
+        final Lease lease = acquire(shardId);
+        final ShardLatency latency = latencies.get(shardId);
+        final long hedgeDelayNanos = lease.isPrimary() ? -1 : latency.hedgeDelayNanos();
+        if (hedgeDelayNanos < 0) {
+            try (Lease unhedged = lease) {
+                return timed(shardId, unhedged, reader);
+            }
+        }
+        hedgeBudget.deposit();
+        final CompletionService<U> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+        final Attempt<U> original = new Attempt<>(shardId, lease, reader);
+        try {
+            original.future = completionService.submit(original);
+        }
+        catch (RejectedExecutionException e) {
+            log.debug("No threads free to hedge read on shard {}. Reading on calling thread", shardId);
+            try (Lease unhedged = lease) {
+                return timed(shardId, unhedged, reader);
+            }
+        }
+        try {
+            if (null != completionService.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS)
+                    || !hedgeBudget.tryWithdraw()) {
+                return resultOf(original.future);
+            }
+            final Lease hedgeLease = acquire(shardId, lease.getReplicaId());
+            if (hedgeLease.isPrimary()) {
+                return resultOf(original.future);
+            }
+            final Attempt<U> hedge = new Attempt<>(shardId, hedgeLease, reader);
+            try {
+                hedge.future = completionService.submit(hedge);
+            }
+            catch (RejectedExecutionException e) {
+                hedgeLease.close();
+                return resultOf(original.future);
+            }
+            latency.hedged.inc();
+            final Future<U> first = completionService.take();
+            final Attempt<U> winner = first == hedge.future ? hedge : original;
+            final Attempt<U> loser = winner == hedge ? original : hedge;
+            try {
+                final U result = resultOf(winner.future);
+                loser.cancel();
+                if (winner == hedge) {
+                    latency.hedgeWins.inc();
+                }
+                return result;
+            }
+            catch (RuntimeException e) {
+                log.warn("Read failed on replica {} of shard {}. Waiting for the other read",
+                         winner.lease.getReplicaId(), shardId, e);
+                return resultOf(loser.future);
+            }
+        }
+        catch (InterruptedException e) {
+            original.cancel();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void start() {
+        if (replicaSessionFactories.stream().allMatch(List::isEmpty)) {
+            return;
+        }
+        if (!lagPolled) {
+            log.warn("No replication lag query configured for {}. Reads in a consistency session go to a replica once "
+                             + "{} ms have passed since the last write, even if the replica is further behind",
+                     namespace, replicaConfig.getMaxReplicationLagMs());
+            return;
+        }
+        lagPoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                                       .setNameFormat("replica-lag-" + namespace)
+                                                                       .setDaemon(true)
+                                                                       .build());
+        lagPoller.scheduleWithFixedDelay(this::pollReplicationLags, 0,
+                                         replicaConfig.getReplicationLagPollIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (null != hedgeExecutor) {
+            hedgeExecutor.shutdownNow();
+        }
+        if (null != lagPoller) {
+            lagPoller.shutdownNow();
+        }
+    }
+
+    private Lease acquire(int shardId, int excludedReplicaId) {
+        if (ReadPreferences.current() == ReadPreference.PRIMARY || replicas(shardId).isEmpty()) {
+            return Lease.PRIMARY;
+        }
+        final ConsistencySession session = ConsistencySession.current();
+        final OptionalLong lastWrite = null == session ? OptionalLong.empty() : session.lastWrite(shardId);
+        final long now = System.currentTimeMillis();
+        final AtomicIntegerArray counters = outstandingRequests.get(shardId);
+        final int numReplicas = counters.length();
+        final int start = Math.floorMod(tieBreaker.getAndIncrement(), numReplicas);
+        int selected = -1;
+        int leastOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < numReplicas; i++) {
+            final int replicaId = (start + i) % numReplicas;
+            if (replicaId == excludedReplicaId) {
+                continue;
+            }
+            if (lastWrite.isPresent() && !caughtUp(shardId, replicaId, lastWrite.getAsLong(), now)) {
+                continue;
+            }
+            final int outstanding = counters.get(replicaId);
+            if (outstanding < leastOutstanding) {
+                leastOutstanding = outstanding;
+                selected = replicaId;
+            }
+        }
+        if (selected == -1) {
+            log.debug("No replica of shard {} has caught up with session writes. Reading from primary", shardId);
+            return Lease.PRIMARY;
+        }
+        counters.incrementAndGet(selected);
+        return new Lease(counters, selected);
+    }
+
+    /**
+     * Record the replication lag of a replica as measured now. This is done periodically when a
+     * {@link ReplicaConfig#getReplicationLagQuery()} is configured. Use this to feed in lag measured by other means.
+     */
+    public void updateReplicationLag(int shardId, int replicaId, long lagMs) {
+        replicationLags.get(shardId).set(replicaId, lagMs);
+        lagMeasuredAt.get(shardId).set(replicaId, System.currentTimeMillis());
+    }
+
+    /**
+     * Runs the replication lag query on every replica. A replica whose lag cannot be read keeps its last measurement,
+     * so its position stops moving forward and it is skipped for reads after newer writes.
+     */
+    void pollReplicationLags() {
+        final String query = replicaConfig.getReplicationLagQuery();
+        for (int shardId = 0; shardId < replicaSessionFactories.size(); shardId++) {
+            final List<SessionFactory> replicas = replicaSessionFactories.get(shardId);
+            for (int replicaId = 0; replicaId < replicas.size(); replicaId++) {
+                try {
+                    final Object lag = Transactions.executeRead(replicas.get(replicaId),
+                            (session, sql) -> session.createNativeQuery(sql).uniqueResult(), query);
+                    if (!(lag instanceof Number)) {
+                        log.warn("Replication lag query returned {} for replica {} of shard {}",
+                                 lag, replicaId, shardId);
+                        continue;
+                    }
+                    updateReplicationLag(shardId, replicaId, Math.max(0, ((Number) lag).longValue()));
+                }
+                catch (RuntimeException e) {
+                    log.warn("Could not read replication lag of replica {} of shard {}", replicaId, shardId, e);
+                }
+            }
+        }
+    }
+
+    public long replicationLag(int shardId, int replicaId) {
+        return replicationLags.get(shardId).get(replicaId);
+    }
+
+    public int outstandingRequests(int shardId, int replicaId) {
+        return outstandingRequests.get(shardId).get(replicaId);
+    }
+
+    /**
+     * A replica has caught up with a write once the position it had replayed up to, when its lag was last measured,
+     * is past the write. A replica whose lag has never been measured is assumed to lag by
+     * {@link ReplicaConfig#getMaxReplicationLagMs()}, unless lag is being polled, in which case it is skipped.
+     */
+    private boolean caughtUp(int shardId, int replicaId, long lastWrite, long now) {
+        final long measuredAt = lagMeasuredAt.get(shardId).get(replicaId);
+        final long lag = replicationLags.get(shardId).get(replicaId);
+        if (measuredAt == 0 && lagPolled) {
+            return false;
+        }
+        final long position = (measuredAt == 0 ? now : measuredAt) - lag;
+        return position >= lastWrite + replicaConfig.getMaxClockSkewMs();
+    }
+
+    private <U> U timed(int shardId, Lease lease, Function<Lease, U> reader) {
+        if (lease.isPrimary()) {
+            return reader.apply(lease);
+        }
+        final long start = System.nanoTime();
+        final U result = reader.apply(lease);
+        latencies.get(shardId).latency.update(System.nanoTime() - start);
+        return result;
+    }
+
+    private static <U> U resultOf(Future<U> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * A read submitted to the hedging pool. The lease is released by whoever gets to the read first: the pool thread
+     * once the read completes or the caller if the read is cancelled before it starts.
+     */
+    private final class Attempt<U> implements Callable<U> {
+        private final int shardId;
+        private final Lease lease;
+        private final Function<Lease, U> reader;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private Future<U> future;
+
+        private Attempt(int shardId, Lease lease, Function<Lease, U> reader) {
+            this.shardId = shardId;
+            this.lease = lease;
+            this.reader = reader;
+        }
+
+        @Override
+        public U call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return timed(shardId, lease, reader);
+            }
+            finally {
+                lease.close();
+            }
+        }
+
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                lease.close();
+            }
+            if (null != future) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Latency of replica reads on a shard over the last minute. The p95 is recomputed at most once a second as taking
+     * a snapshot of the reservoir is not cheap.
+     */
+    private static final class ShardLatency {
+        private final Histogram latency;
+        private final Counter hedged;
+        private final Counter hedgeWins;
+        private final long minHedgeDelayNanos;
+        private volatile long p95Nanos = -1;
+        private volatile long nextRefreshMs = 0;
+
+        private ShardLatency(MetricRegistry metrics, String namespace, int shardId, long minHedgeDelayNanos) {
+            final String prefix = MetricRegistry.name(ReplicaManager.class, namespace, "shard-" + shardId);
+            this.latency = metrics.histogram(MetricRegistry.name(prefix, "latency"),
+                    () -> new Histogram(new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES)));
+            this.hedged = metrics.counter(MetricRegistry.name(prefix, "hedged"));
+            this.hedgeWins = metrics.counter(MetricRegistry.name(prefix, "hedgeWins"));
+            this.minHedgeDelayNanos = minHedgeDelayNanos;
+        }
+
+        /**
+         * @return Time after which a read should be hedged or -1 if too few reads have been seen to tell
+         */
+        long hedgeDelayNanos() {
+            final long now = System.currentTimeMillis();
+            if (now >= nextRefreshMs) {
+                nextRefreshMs = now + LATENCY_REFRESH_INTERVAL_MS;
+                final Snapshot snapshot = latency.getSnapshot();
+                p95Nanos = snapshot.size() < MIN_LATENCY_SAMPLES ? -1 : (long) snapshot.get95thPercentile();
+            }
+            final long p95 = p95Nanos;
+            return p95 < 0 ? -1 : Math.max(p95, minHedgeDelayNanos);
+        }
+    }
+
+    /**
+     * Token bucket that caps the fraction of reads that are hedged. Every hedgeable read adds a fraction of a token
+     * and every hedge takes a whole token. Tokens are kept in thousandths so that the bucket can be updated lock free.
+     */
+    private static final class HedgeBudget {
+        private static final long TOKEN = 1000;
+        private static final long MAX_TOKENS = 10 * TOKEN;
+
+        private final long depositPerRead;
+        private final AtomicLong tokens = new AtomicLong();
+
+        private HedgeBudget(double ratio) {
+            this.depositPerRead = (long) (ratio * TOKEN);
+        }
+
+        void deposit() {
+            tokens.getAndUpdate(current -> Math.min(MAX_TOKENS, current + depositPerRead));
+        }
+
+        boolean tryWithdraw() {
+            long current;
+            do {
+                current = tokens.get();
+                if (current < TOKEN) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(current, current - TOKEN));
+            return true;
+        }
+    }
+
+    /**
+     * An in-flight read on a replica or the primary
+     */
+    public static final class Lease implements AutoCloseable {
+        private static final Lease PRIMARY = new Lease(null, -1);
+
+        private final AtomicIntegerArray counters;
+        @Getter
+        private final int replicaId;
+
+        private Lease(AtomicIntegerArray counters, int replicaId) {
+            this.counters = counters;
+            this.replicaId = replicaId;
+        }
+
+        public boolean isPrimary() {
+            return null == counters;
+        }
+
+        @Override
+        public void close() {
+            if (!isPrimary()) {
+                counters.decrementAndGet(replicaId);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks an int field of an entity to hold the bucket of the entity's shard key. The daos set the field whenever they
+ * save the entity, so that the rows of a bucket can be found with a query on the column instead of hashing every key.
+ * The column should be indexed, for example with {@code @Table(indexes = @Index(columnList = "bucket_id"))}.
+ * <b>Note:</b> Rows written before the field was added have no bucket and are not found by bucket scans and counts.
+ * The daos fill in the bucket when such rows are next updated. Until then, the column has to be backfilled, for
+ * example by running {@code RelationalDao#updateAllInChunks} with an updater that returns each entity as is.
+ */
+@Target(FIELD)
+@Retention(RUNTIME)
+public @interface BucketId {
+}
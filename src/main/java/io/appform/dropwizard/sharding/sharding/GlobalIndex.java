@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import io.appform.dropwizard.sharding.dao.LookupDao;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a field of a top level entity to be indexed globally. The bundle keeps a table that maps values of the field
+ * to the {@link LookupKey} of the entities, sharded by the hash of the value, so that the entities can be found with
+ * {@link LookupDao#getByIndex(String, Object)} without scanning all shards.
+ */
+@Target(FIELD)
+@Retention(RUNTIME)
+public @interface GlobalIndex {
+    /**
+     * Name of the index. Defaults to the name of the field.
+     */
+    String name() default "";
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import io.appform.dropwizard.sharding.config.BulkheadConfig;
+import io.appform.dropwizard.sharding.exceptions.ShardOverloadedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Limits the number of concurrent calls on each shard. Calls over the limit wait in a bounded queue for a slot or are
+ * rejected with {@link ShardOverloadedException}, so that overload on one shard only affects calls routed to it.
+ */
+public class ShardBulkhead {
+
+    private final BulkheadConfig config;
+    private final Semaphore[] permits;
+    private final AtomicIntegerArray queued;
+
+    public ShardBulkhead(int numShards, BulkheadConfig config) {
+        this.config = config;
+        this.permits = new Semaphore[numShards];
+        for (int i = 0; i < numShards; i++) {
+            permits[i] = new Semaphore(config.getMaxConcurrentCalls());
+        }
+        this.queued = new AtomicIntegerArray(numShards);
+    }
+
+    public static ShardBulkhead disabled() {
+        return new ShardBulkhead(0, BulkheadConfig.builder().build());
+    }
+
+    public int availableSlots(int shardId) {
+        return isTracked(shardId) ? permits[shardId].availablePermits() : Integer.MAX_VALUE;
+    }
+
+    public boolean hasQueuedCalls(int shardId) {
+        return isTracked(shardId) && queued.get(shardId) > 0;
+    }
+
+    /**
+     * Runs a call on the shard once a slot is available.
+     * @throws ShardOverloadedException if no slot frees up in time or the queue for the shard is full
+     */
+    public <U> U execute(int shardId, Supplier<U> call) {
+        if (!isTracked(shardId)) {
+            return call.get();
+        }
+        final Semaphore shardPermits = acquire(shardId);
+        try {
+            return call.get();
+        }
+        finally {
+            shardPermits.release();
+        }
+    }
+
+    /**
+     * Same as {@link #execute(int, Supplier)} for calls that open a stream. The slot is held until the stream is
+     * closed.
+     */
+    public <U> Stream<U> executeStream(int shardId, Supplier<Stream<U>> open) {
+        if (!isTracked(shardId)) {
+            return open.get();
+        }
+        final Semaphore shardPermits = acquire(shardId);
+        try {
+            return open.get().onClose(shardPermits::release);
+        }
+        catch (RuntimeException | Error e) {
+            shardPermits.release();
+            throw e;
+        }
+    }
+
+    private Semaphore acquire(int shardId) {
+        final Semaphore shardPermits = permits[shardId];
+        if (!shardPermits.tryAcquire()) {
+            waitForSlot(shardId, shardPermits);
+        }
+        return shardPermits;
+    }
+
+    private void waitForSlot(int shardId, Semaphore shardPermits) {
+        if (queued.incrementAndGet(shardId) > config.getMaxQueuedCalls()) {
+            queued.decrementAndGet(shardId);
+            throw new ShardOverloadedException(shardId);
+        }
+        try {
+            if (!shardPermits.tryAcquire(config.getMaxWaitMs(), TimeUnit.MILLISECONDS)) {
+                throw new ShardOverloadedException(shardId);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardOverloadedException(shardId);
+        }
+        finally {
+            queued.decrementAndGet(shardId);
+        }
+    }
+
+    private boolean isTracked(int shardId) {
+        return shardId >= 0 && shardId < permits.length;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import com.google.common.base.Throwables;
+import io.appform.dropwizard.sharding.config.CircuitBreakerConfig;
+import io.appform.dropwizard.sharding.exceptions.ShardCircuitOpenException;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.exception.JDBCConnectionException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Per shard circuit breaker fed by the outcome of dao calls. A shard trips open when too many calls in the sliding
+ * window fail with timeouts or connection errors or when the configured latency percentile goes above the limit.
+ * While open, {@link ShardManager} fails calls to the shard fast. Once the open duration is over, a limited number of
+ * probe calls are let through. The breaker closes if all of them succeed and opens again otherwise.
+ * Counters are updated lock free and are approximate under contention.
+ */
+@Slf4j
+public class ShardCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int NUM_BUCKETS = 10;
+
+    private final CircuitBreakerConfig config;
+    private final ShardCircuit[] circuits;
+
+    public ShardCircuitBreaker(int numShards, CircuitBreakerConfig config) {
+        this.config = config;
+        this.circuits = new ShardCircuit[numShards];
+        for (int i = 0; i < numShards; i++) {
+            circuits[i] = new ShardCircuit(i);
+        }
+    }
+
+    public static ShardCircuitBreaker disabled() {
+        return new ShardCircuitBreaker(0, null);
+    }
+
+    public State state(int shardId) {
+        return isTracked(shardId) ? circuits[shardId].state.get() : State.CLOSED;
+    }
+
+    /**
+     * @return true if calls to the shard need to be failed fast
+     */
+    public boolean isOpen(int shardId) {
+        return isTracked(shardId) && circuits[shardId].isOpen(System.currentTimeMillis());
+    }
+
+    /**
+     * Runs a call on the shard and records its outcome.
+     * @throws ShardCircuitOpenException if the breaker is open or all probes are in flight when half open
+     */
+    public <U> U execute(int shardId, Supplier<U> call) {
+        if (!isTracked(shardId)) {
+            return call.get();
+        }
+        final ShardCircuit circuit = circuits[shardId];
+        final boolean probe = circuit.admit();
+        final long start = System.nanoTime();
+        try {
+            final U result = call.get();
+            circuit.record(probe, System.nanoTime() - start, false);
+            return result;
+        }
+        catch (RuntimeException | Error e) {
+            circuit.record(probe, System.nanoTime() - start, isShardFailure(e));
+            throw e;
+        }
+    }
+
+    private boolean isTracked(int shardId) {
+        return null != config && shardId >= 0 && shardId < circuits.length;
+    }
+
+    /**
+     * Only failures that point at the health of the shard count towards tripping the breaker.
+     */
+    private static boolean isShardFailure(Throwable t) {
+        return Throwables.getCausalChain(t)
+                .stream()
+                .anyMatch(cause -> cause instanceof JDBCConnectionException
+                        || cause instanceof QueryTimeoutException
+                        || cause instanceof javax.persistence.QueryTimeoutException
+                        || cause instanceof SQLTransientConnectionException
+                        || cause instanceof SQLNonTransientConnectionException
+                        || cause instanceof SQLTimeoutException
+                        || cause instanceof SocketTimeoutException
+                        || cause instanceof ConnectException
+                        || cause instanceof TimeoutException);
+    }
+
+    private final class ShardCircuit {
+        private final int shardId;
+        private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+        private final AtomicInteger probesAdmitted = new AtomicInteger();
+        private final AtomicInteger probesSucceeded = new AtomicInteger();
+        private final long bucketMs = Math.max(1, config.getWindowMs() / NUM_BUCKETS);
+        private final long slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxLatencyMs());
+        private final AtomicLongArray bucketEpochs = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLongArray calls = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLongArray failures = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLongArray slowCalls = new AtomicLongArray(NUM_BUCKETS);
+        private volatile long openUntil;
+
+        private ShardCircuit(int shardId) {
+            this.shardId = shardId;
+            resetWindow();
+        }
+
+        boolean isOpen(long now) {
+            return state.get() == State.OPEN && now < openUntil;
+        }
+
+        /**
+         * @return true if the call is a probe
+         */
+        boolean admit() {
+            State current = state.get();
+            if (current == State.CLOSED) {
+                return false;
+            }
+            if (current == State.OPEN) {
+                if (System.currentTimeMillis() < openUntil) {
+                    throw new ShardCircuitOpenException(shardId);
+                }
+                if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                    log.info("Circuit breaker for shard {} is half open. Letting {} probe calls through",
+                             shardId, config.getProbeCalls());
+                }
+                current = state.get();
+                if (current == State.CLOSED) {
+                    return false;
+                }
+            }
+            if (current != State.HALF_OPEN || probesAdmitted.incrementAndGet() > config.getProbeCalls()) {
+                throw new ShardCircuitOpenException(shardId);
+            }
+            return true;
+        }
+
+        void record(boolean probe, long latencyNanos, boolean failed) {
+            final boolean slow = latencyNanos > slowCallNanos;
+            if (probe) {
+                if (failed || slow) {
+                    trip(State.HALF_OPEN, "probe call failed");
+                }
+                else if (probesSucceeded.incrementAndGet() >= config.getProbeCalls()
+                        && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                    resetWindow();
+                    log.info("Circuit breaker for shard {} is closed", shardId);
+                }
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final long epoch = now / bucketMs;
+            final int bucket = (int) (epoch % NUM_BUCKETS);
+            final long bucketEpoch = bucketEpochs.get(bucket);
+            if (bucketEpoch != epoch && bucketEpochs.compareAndSet(bucket, bucketEpoch, epoch)) {
+                calls.set(bucket, 0);
+                failures.set(bucket, 0);
+                slowCalls.set(bucket, 0);
+            }
+            calls.incrementAndGet(bucket);
+            if (failed) {
+                failures.incrementAndGet(bucket);
+            }
+            if (slow) {
+                slowCalls.incrementAndGet(bucket);
+            }
+            if ((failed || slow) && state.get() == State.CLOSED) {
+                evaluate(epoch);
+            }
+        }
+
+        private void evaluate(long epoch) {
+            long totalCalls = 0;
+            long totalFailures = 0;
+            long totalSlowCalls = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                if (epoch - bucketEpochs.get(i) < NUM_BUCKETS) {
+                    totalCalls += calls.get(i);
+                    totalFailures += failures.get(i);
+                    totalSlowCalls += slowCalls.get(i);
+                }
+            }
+            if (totalCalls < config.getMinCalls()) {
+                return;
+            }
+            if ((double) totalFailures / totalCalls >= config.getFailureRateThreshold()) {
+                trip(State.CLOSED, String.format("%d of %d calls failed", totalFailures, totalCalls));
+            }
+            else if ((double) totalSlowCalls / totalCalls > 1 - config.getLatencyPercentile()) {
+                trip(State.CLOSED, String.format("%d of %d calls took more than %d ms",
+                                                 totalSlowCalls, totalCalls, config.getMaxLatencyMs()));
+            }
+        }
+
+        private void trip(State from, String reason) {
+            openUntil = System.currentTimeMillis() + config.getOpenDurationMs();
+            if (state.compareAndSet(from, State.OPEN)) {
+                probesAdmitted.set(0);
+                probesSucceeded.set(0);
+                log.warn("Circuit breaker for shard {} is open for {} ms: {}", shardId, config.getOpenDurationMs(), reason);
+            }
+        }
+
+        private void resetWindow() {
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                bucketEpochs.set(i, -NUM_BUCKETS);
+                calls.set(i, 0);
+                failures.set(i, 0);
+                slowCalls.set(i, 0);
+            }
+        }
+    }
+}
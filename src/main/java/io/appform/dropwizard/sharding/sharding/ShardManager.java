@@ -19,11 +19,26 @@ package io.appform.dropwizard.sharding.sharding;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.appform.dropwizard.sharding.config.BulkheadConfig;
+import io.appform.dropwizard.sharding.config.CircuitBreakerConfig;
 import io.appform.dropwizard.sharding.exceptions.ShardBlacklistedException;
+import io.appform.dropwizard.sharding.exceptions.ShardCircuitOpenException;
+import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
 /**
@@ -35,6 +50,16 @@ public abstract class ShardManager {
 
     private final ShardBlacklistingStore shardBlacklistingStore;
     private LoadingCache<Integer, Boolean> blackListedShards;
+    @Getter
+    private volatile ShardCircuitBreaker circuitBreaker = ShardCircuitBreaker.disabled();
+    @Getter
+    private volatile ShardBulkhead bulkhead = ShardBulkhead.disabled();
+    /**
+     * Runs calls made by daos on several shards at once. Calls run one after the other on the calling thread when this
+     * is not set.
+     */
+    @Getter
+    private volatile ExecutorService fanoutExecutor;
 
     abstract public int numBuckets();
 
@@ -57,16 +82,77 @@ public abstract class ShardManager {
         if(null != isBlacklisted && isBlacklisted) {
             throw new ShardBlacklistedException(shard);
         }
+        if(circuitBreaker.isOpen(shard)) {
+            throw new ShardCircuitOpenException(shard);
+        }
         return shard;
     }
 
+    /**
+     * Shards owning the buckets in a range.
+     * @param fromBucket first bucket of the range
+     * @param toBucket last bucket of the range, inclusive
+     */
+    public SortedSet<Integer> shardsForBuckets(int fromBucket, int toBucket) {
+        Preconditions.checkArgument(0 <= fromBucket && fromBucket <= toBucket && toBucket < numBuckets(),
+                                    "Invalid bucket range [%s, %s]", fromBucket, toBucket);
+        return IntStream.rangeClosed(fromBucket, toBucket)
+                .map(this::shardForBucket)
+                .boxed()
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
     public boolean isMappedToValidShard(int bucketId) {
         final int shard = shardForBucketImpl(bucketId);
         final Boolean isBlacklisted = blackListedShards.get(shard);
         if(null != isBlacklisted && isBlacklisted) {
             return false;
         }
-        return true;
+        return !circuitBreaker.isOpen(shard);
+    }
+
+    /**
+     * Starts blacklisting shards automatically based on the outcome of calls made to them.
+     * See {@link ShardCircuitBreaker}.
+     */
+    public void enableCircuitBreaker(CircuitBreakerConfig circuitBreakerConfig) {
+        this.circuitBreaker = new ShardCircuitBreaker(numShards(), circuitBreakerConfig);
+    }
+
+    /**
+     * Starts limiting the number of concurrent calls on each shard. See {@link ShardBulkhead}.
+     */
+    public void enableBulkhead(BulkheadConfig bulkheadConfig) {
+        this.bulkhead = new ShardBulkhead(numShards(), bulkheadConfig);
+    }
+
+    /**
+     * Runs calls made on several shards at once on up to the given number of threads. Calls that find all threads busy
+     * run on the calling thread instead of waiting in a queue. The pool is owned by the caller, which must shut it down.
+     */
+    public ExecutorService enableFanout(int threads, String name) {
+        final ExecutorService executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        this.fanoutExecutor = executor;
+        return executor;
+    }
+
+    /**
+     * Runs a call on a shard subject to admission control and circuit breaking. Calls are admitted before the breaker
+     * sees them so that rejected calls are not counted as outcomes of the shard.
+     */
+    public <U> U guard(int shardId, Supplier<U> call) {
+        return bulkhead.execute(shardId, () -> circuitBreaker.execute(shardId, call));
+    }
+
+    /**
+     * Same as {@link #guard(int, Supplier)} for calls that open a stream on a shard. The bulkhead slot is held until the
+     * stream is closed. The circuit breaker only sees the outcome of opening the stream, as the time taken to read it
+     * is up to the caller.
+     */
+    public <U> Stream<U> guardStream(int shardId, Supplier<Stream<U>> open) {
+        return bulkhead.executeStream(shardId, () -> circuitBreaker.execute(shardId, open));
     }
 
     public void blacklistShard(int shardId) {
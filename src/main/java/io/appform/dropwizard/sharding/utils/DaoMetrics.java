@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+/**
+ * Metrics of the daos created by a bundle. They are named after the namespace of the bundle, so that bundles in the
+ * same application report separately.
+ */
+@Getter
+public final class DaoMetrics {
+    private final TransactionMetrics transactions;
+    private final OptimisticLockMetrics optimisticLocks;
+    private final KeyFilterMetrics keyFilters;
+
+    public DaoMetrics(MetricRegistry metrics, String namespace) {
+        this.transactions = new TransactionMetrics(metrics, namespace);
+        this.optimisticLocks = new OptimisticLockMetrics(metrics, namespace);
+        this.keyFilters = new KeyFilterMetrics(metrics, namespace);
+    }
+
+    /**
+     * Metrics for daos created outside a bundle. They are kept in a registry of their own.
+     */
+    public static DaoMetrics unregistered() {
+        return new DaoMetrics(new MetricRegistry(), "default");
+    }
+}
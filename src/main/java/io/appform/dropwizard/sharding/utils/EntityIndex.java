@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.utils;
+
+import com.google.common.base.Strings;
+import lombok.extern.slf4j.Slf4j;
+import org.reflections.Reflections;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+
+import javax.persistence.Entity;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds entity classes in packages. Jars built with
+ * {@link io.appform.dropwizard.sharding.processor.EntityIndexProcessor} on the annotation processor path carry an
+ * index of their entities at {@value #LOCATION}. For each package, the classpath roots (jars or directories) that
+ * contain it are looked up. Entities of roots with an index are read from it, and roots without an index are scanned
+ * with {@link Reflections}, so a package spread over jars with and without an index is found in full. Set the system
+ * property {@value #IGNORE_PROPERTY} to true to scan all roots.
+ */
+@Slf4j
+public final class EntityIndex {
+    public static final String LOCATION = "META-INF/db-sharding/entities";
+    public static final String IGNORE_PROPERTY = "db.sharding.entity.index.ignore";
+
+    private EntityIndex() {
+    }
+
+    public static Set<Class<?>> entities(List<String> packages) {
+        return entities(Thread.currentThread().getContextClassLoader(), packages);
+    }
+
+    public static Set<Class<?>> entities(ClassLoader classLoader, List<String> packages) {
+        final Map<String, Set<String>> indexes = Boolean.getBoolean(IGNORE_PROPERTY)
+                ? Collections.emptyMap()
+                : read(classLoader);
+        final Set<Class<?>> entities = new LinkedHashSet<>();
+        for (String packageName : packages) {
+            final Set<String> indexed = new LinkedHashSet<>();
+            final List<URL> unindexed = new ArrayList<>();
+            for (URL root : roots(classLoader, packageName)) {
+                final Set<String> names = indexes.get(root.toExternalForm());
+                if (null == names) {
+                    unindexed.add(root);
+                    continue;
+                }
+                names.stream()
+                        .filter(name -> Strings.isNullOrEmpty(packageName) || name.startsWith(packageName + "."))
+                        .forEach(indexed::add);
+            }
+            for (String name : indexed) {
+                try {
+                    entities.add(Class.forName(name, false, classLoader));
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("Indexed entity class " + name + " not found", e);
+                }
+            }
+            final Set<Class<?>> scanned = unindexed.isEmpty()
+                    ? Collections.emptySet()
+                    : scan(classLoader, packageName, unindexed);
+            entities.addAll(scanned);
+            if (unindexed.isEmpty()) {
+                log.warn("Entities in {}: {} read from the entity index", packageName, indexed.size());
+            } else {
+                log.warn("Entities in {}: {} read from the entity index, {} found by scanning {} without an index",
+                         packageName, indexed.size(), scanned.size(), unindexed);
+            }
+        }
+        return entities;
+    }
+
+    private static Set<Class<?>> scan(ClassLoader classLoader, String packageName, List<URL> roots) {
+        final ConfigurationBuilder configuration = new ConfigurationBuilder()
+                .setUrls(roots)
+                .addClassLoader(classLoader);
+        if (!Strings.isNullOrEmpty(packageName)) {
+            configuration.filterInputsBy(new FilterBuilder().includePackage(packageName));
+        }
+        return new Reflections(configuration).getTypesAnnotatedWith(Entity.class);
+    }
+
+    /**
+     * Classpath roots that contain the package.
+     */
+    private static Set<URL> roots(ClassLoader classLoader, String packageName) {
+        final String path = Strings.isNullOrEmpty(packageName) ? "" : packageName.replace('.', '/') + "/";
+        final Set<URL> roots = new LinkedHashSet<>();
+        try {
+            final Enumeration<URL> resources = classLoader.getResources(path);
+            while (resources.hasMoreElements()) {
+                roots.add(root(resources.nextElement(), path));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error finding classpath roots of " + packageName, e);
+        }
+        return roots;
+    }
+
+    /**
+     * Names of the entity classes in each index on the classpath, by the classpath root the index is in.
+     */
+    private static Map<String, Set<String>> read(ClassLoader classLoader) {
+        final Map<String, Set<String>> indexes = new HashMap<>();
+        try {
+            final Enumeration<URL> resources = classLoader.getResources(LOCATION);
+            while (resources.hasMoreElements()) {
+                final URL index = resources.nextElement();
+                final Set<String> names = indexes.computeIfAbsent(root(index, LOCATION).toExternalForm(),
+                                                                  root -> new LinkedHashSet<>());
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+                    reader.lines()
+                            .map(String::trim)
+                            .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                            .forEach(names::add);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading entity index", e);
+        }
+        return indexes;
+    }
+
+    private static URL root(URL resource, String path) throws IOException {
+        final String url = resource.toExternalForm();
+        if (!url.endsWith(path)) {
+            throw new IOException("Unexpected location " + url + " for " + path);
+        }
+        return new URL(url.substring(0, url.length() - path.length()));
+    }
+}
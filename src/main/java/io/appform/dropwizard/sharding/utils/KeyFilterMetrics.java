@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+/**
+ * Meters for key filters: lookups checked against a filter and lookups that skipped the database because the filter
+ * ruled the key out. Each bundle keeps its own meters, named after its namespace. See {@link DaoMetrics}.
+ */
+@Getter
+public final class KeyFilterMetrics {
+
+    private final Meter checks;
+    private final Meter skipped;
+
+    public KeyFilterMetrics(MetricRegistry metrics, String namespace) {
+        this.checks = metrics.meter(MetricRegistry.name(KeyFilterMetrics.class, namespace, "checks"));
+        this.skipped = metrics.meter(MetricRegistry.name(KeyFilterMetrics.class, namespace, "skipped"));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+/**
+ * Meters for optimistic updates: every attempt, attempts that failed due to a conflicting write and updates that were
+ * given up after running out of attempts. The conflict rate is the rate of conflicts over the rate of attempts.
+ * Each bundle keeps its own meters, named after its namespace. See {@link DaoMetrics}.
+ */
+@Getter
+public final class OptimisticLockMetrics {
+
+    private final Meter attempts;
+    private final Meter conflicts;
+    private final Meter exhausted;
+
+    public OptimisticLockMetrics(MetricRegistry metrics, String namespace) {
+        this.attempts = metrics.meter(MetricRegistry.name(OptimisticLockMetrics.class, namespace, "attempts"));
+        this.conflicts = metrics.meter(MetricRegistry.name(OptimisticLockMetrics.class, namespace, "conflicts"));
+        this.exhausted = metrics.meter(MetricRegistry.name(OptimisticLockMetrics.class, namespace, "exhausted"));
+    }
+}
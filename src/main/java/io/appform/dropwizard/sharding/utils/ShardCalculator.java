@@ -19,6 +19,7 @@ package io.appform.dropwizard.sharding.utils;
 
 import io.appform.dropwizard.sharding.sharding.BucketIdExtractor;
 import io.appform.dropwizard.sharding.sharding.ShardManager;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -27,6 +28,7 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ShardCalculator<T> {
 
+    @Getter
     private final ShardManager shardManager;
     private final BucketIdExtractor<T> extractor;
 
@@ -40,6 +42,10 @@ public class ShardCalculator<T> {
         return shardManager.shardForBucket(bucketId);
     }
 
+    public int bucketId(T key) {
+        return extractor.bucketId(key);
+    }
+
     public boolean isOnValidShard(T key) {
         int bucketId = extractor.bucketId(key);
         return shardManager.isMappedToValidShard(bucketId);
@@ -23,7 +23,10 @@ import org.hibernate.context.internal.ManagedSessionContext;
 import org.hibernate.resource.transaction.spi.TransactionStatus;
 
 /**
- * A transaction handler utility class
+ * A transaction handler utility class.
+ * Light handlers (see {@link #forLightRead(SessionFactory)}) are meant for simple reads. They skip binding the session
+ * to the {@link ManagedSessionContext} and run without an explicit transaction, so the query runs in auto-commit mode.
+ * The session has to be passed to the read explicitly in this case.
  */
 public class TransactionHandler {
 
@@ -33,14 +36,45 @@ public class TransactionHandler {
     private Session session;
     private final SessionFactory sessionFactory;
     private boolean readOnly;
+    private final boolean light;
+    private final TransactionMetrics metrics;
+    private long queryStart;
 
     public TransactionHandler(SessionFactory sessionFactory, boolean readOnly) {
+        this(sessionFactory, readOnly, TransactionMetrics.NOOP);
+    }
+
+    public TransactionHandler(SessionFactory sessionFactory, boolean readOnly, TransactionMetrics metrics) {
+        this(sessionFactory, readOnly, false, metrics);
+    }
+
+    private TransactionHandler(SessionFactory sessionFactory, boolean readOnly, boolean light,
+                               TransactionMetrics metrics) {
         this.sessionFactory = sessionFactory;
         this.readOnly = readOnly;
+        this.light = light;
+        this.metrics = metrics;
     }
 
-    public void beforeStart() {
+    public static TransactionHandler forLightRead(SessionFactory sessionFactory) {
+        return forLightRead(sessionFactory, TransactionMetrics.NOOP);
+    }
 
+    public static TransactionHandler forLightRead(SessionFactory sessionFactory, TransactionMetrics metrics) {
+        return new TransactionHandler(sessionFactory, true, true, metrics);
+    }
+
+    public void beforeStart() {
+        final long setupStart = System.nanoTime();
+        if (light) {
+            session = sessionFactory.withOptions()
+                    .flushMode(FlushMode.MANUAL)
+                    .openSession();
+            session.setDefaultReadOnly(true);
+            metrics.record(true, TransactionMetrics.Phase.SETUP, setupStart);
+            queryStart = System.nanoTime();
+            return;
+        }
         session = sessionFactory.openSession();
         try {
             configureSession();
@@ -52,12 +86,21 @@ public class TransactionHandler {
             ManagedSessionContext.unbind(sessionFactory);
             throw th;
         }
+        metrics.record(false, TransactionMetrics.Phase.SETUP, setupStart);
+        queryStart = System.nanoTime();
     }
 
     public void afterEnd() {
         if (session == null) {
             return;
         }
+        metrics.record(light, TransactionMetrics.Phase.QUERY, queryStart);
+        final long completionStart = System.nanoTime();
+        if (light) {
+            closeLightSession();
+            metrics.record(true, TransactionMetrics.Phase.COMPLETION, completionStart);
+            return;
+        }
 
         try {
             commitTransaction();
@@ -69,13 +112,17 @@ public class TransactionHandler {
             session = null;
             ManagedSessionContext.unbind(sessionFactory);
         }
-
+        metrics.record(false, TransactionMetrics.Phase.COMPLETION, completionStart);
     }
 
     public void onError() {
         if (session == null) {
             return;
         }
+        if (light) {
+            closeLightSession();
+            return;
+        }
 
         try {
             rollbackTransaction();
@@ -86,6 +133,27 @@ public class TransactionHandler {
         }
     }
 
+    /**
+     * Ends the implicit transaction started by the read if the pool hands out connections with auto-commit turned off,
+     * so that the connection does not go back to the pool with a transaction open.
+     */
+    private void closeLightSession() {
+        try {
+            endImplicitTransaction(session);
+        } finally {
+            session.close();
+            session = null;
+        }
+    }
+
+    static void endImplicitTransaction(SharedSessionContract session) {
+        session.doWork(connection -> {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        });
+    }
+
     private void configureSession() {
         session.setDefaultReadOnly(readOnly);
         session.setCacheMode(CacheMode.NORMAL);
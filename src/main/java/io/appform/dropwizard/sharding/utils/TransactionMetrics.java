@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for the phases of a dao call: setting up the session and transaction, running the query and completing the
+ * transaction. Light reads (see {@link TransactionHandler#forLightRead(org.hibernate.SessionFactory)}) are timed
+ * separately. Each bundle keeps its own timers, named after its namespace. See {@link DaoMetrics}.
+ */
+public final class TransactionMetrics {
+
+    public enum Phase {
+        SETUP,
+        QUERY,
+        COMPLETION
+    }
+
+    /**
+     * Records nothing. Used when {@link Transactions} and {@link TransactionHandler} are called without metrics.
+     */
+    public static final TransactionMetrics NOOP = new TransactionMetrics(null);
+
+    private final Timer[][] timers;
+
+    public TransactionMetrics(MetricRegistry metrics, String namespace) {
+        this(timers(metrics, namespace));
+    }
+
+    private TransactionMetrics(Timer[][] timers) {
+        this.timers = timers;
+    }
+
+    public Timer timer(boolean light, Phase phase) {
+        Preconditions.checkState(null != timers, "No timers are kept by NOOP transaction metrics");
+        return timers[light ? 1 : 0][phase.ordinal()];
+    }
+
+    void record(boolean light, Phase phase, long startNanos) {
+        if (null != timers) {
+            timer(light, phase).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static Timer[][] timers(MetricRegistry metrics, String namespace) {
+        final Timer[][] created = new Timer[2][Phase.values().length];
+        for (Phase phase : Phase.values()) {
+            final String name = phase.name().toLowerCase();
+            created[0][phase.ordinal()] = metrics.timer(MetricRegistry.name(Transactions.class, namespace, name),
+                    () -> new Timer(new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES)));
+            created[1][phase.ordinal()] = metrics.timer(MetricRegistry.name(Transactions.class, namespace, "light", name),
+                    () -> new Timer(new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES)));
+        }
+        return created;
+    }
+}
@@ -19,12 +19,15 @@ package io.appform.dropwizard.sharding.utils;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 
 import java.util.Optional;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
  * Utility functional class for running transactions.
+ * The variants that take {@link TransactionMetrics} time the phases of the transaction. The others record nothing.
  */
 public class Transactions {
     private Transactions() {}
@@ -34,24 +37,44 @@ public class Transactions {
     }
 
     public static <T, U> Optional<T> executeAndResolve(SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg) {
-        T result = execute(sessionFactory, readOnly, function, arg);
+        return executeAndResolve(TransactionMetrics.NOOP, sessionFactory, readOnly, function, arg);
+    }
+
+    public static <T, U> Optional<T> executeAndResolve(TransactionMetrics metrics, SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg) {
+        T result = execute(metrics, sessionFactory, readOnly, function, arg);
         return Optional.ofNullable(result);
     }
 
     public static <T, U> T execute(SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg) {
-        return execute(sessionFactory, readOnly, function, arg, t -> t);
+        return execute(TransactionMetrics.NOOP, sessionFactory, readOnly, function, arg);
+    }
+
+    public static <T, U> T execute(TransactionMetrics metrics, SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg) {
+        return execute(metrics, sessionFactory, readOnly, function, arg, t -> t);
     }
 
     public static <T, U> T execute(SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, boolean completeTransaction) {
-        return execute(sessionFactory, readOnly, function, arg, t -> t, completeTransaction);
+        return execute(TransactionMetrics.NOOP, sessionFactory, readOnly, function, arg, completeTransaction);
+    }
+
+    public static <T, U> T execute(TransactionMetrics metrics, SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, boolean completeTransaction) {
+        return execute(metrics, sessionFactory, readOnly, function, arg, t -> t, completeTransaction);
     }
 
     public static <T, U, V> V execute(SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, Function<T, V> handler) {
-        return execute(sessionFactory, readOnly, function, arg, handler, true);
+        return execute(TransactionMetrics.NOOP, sessionFactory, readOnly, function, arg, handler);
+    }
+
+    public static <T, U, V> V execute(TransactionMetrics metrics, SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, Function<T, V> handler) {
+        return execute(metrics, sessionFactory, readOnly, function, arg, handler, true);
     }
 
     public static <T, U, V> V execute(SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, Function<T, V> handler, boolean completeTransaction) {
-        TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, readOnly);
+        return execute(TransactionMetrics.NOOP, sessionFactory, readOnly, function, arg, handler, completeTransaction);
+    }
+
+    public static <T, U, V> V execute(TransactionMetrics metrics, SessionFactory sessionFactory, boolean readOnly, Function<U, T> function, U arg, Function<T, V> handler, boolean completeTransaction) {
+        TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, readOnly, metrics);
         if(completeTransaction) {
             transactionHandler.beforeStart();
         }
@@ -70,8 +93,61 @@ public class Transactions {
         }
     }
 
+    /**
+     * Runs a simple read on a light session that is passed to the function.
+     * See {@link TransactionHandler#forLightRead(SessionFactory)}.
+     */
+    public static <T, U> T executeRead(SessionFactory sessionFactory, BiFunction<Session, U, T> function, U arg) {
+        return executeRead(TransactionMetrics.NOOP, sessionFactory, function, arg);
+    }
+
+    public static <T, U> T executeRead(TransactionMetrics metrics, SessionFactory sessionFactory, BiFunction<Session, U, T> function, U arg) {
+        TransactionHandler transactionHandler = TransactionHandler.forLightRead(sessionFactory, metrics);
+        transactionHandler.beforeStart();
+        try {
+            T result = function.apply(transactionHandler.getSession(), arg);
+            transactionHandler.afterEnd();
+            return result;
+        } catch (Exception e) {
+            transactionHandler.onError();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a read on a {@link StatelessSession} without an explicit transaction. Timed as a light read in
+     * {@link TransactionMetrics}.
+     */
+    public static <T, U> T executeStateless(SessionFactory sessionFactory, BiFunction<StatelessSession, U, T> function, U arg) {
+        return executeStateless(TransactionMetrics.NOOP, sessionFactory, function, arg);
+    }
+
+    public static <T, U> T executeStateless(TransactionMetrics metrics, SessionFactory sessionFactory, BiFunction<StatelessSession, U, T> function, U arg) {
+        final long setupStart = System.nanoTime();
+        final StatelessSession session = sessionFactory.openStatelessSession();
+        metrics.record(true, TransactionMetrics.Phase.SETUP, setupStart);
+        final long queryStart = System.nanoTime();
+        try {
+            T result = function.apply(session, arg);
+            metrics.record(true, TransactionMetrics.Phase.QUERY, queryStart);
+            return result;
+        } finally {
+            final long completionStart = System.nanoTime();
+            try {
+                TransactionHandler.endImplicitTransaction(session);
+            } finally {
+                session.close();
+            }
+            metrics.record(true, TransactionMetrics.Phase.COMPLETION, completionStart);
+        }
+    }
+
     public static <T> T execute(SessionFactory sessionFactory, Function<Session, T> handler) {
-        TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, true);
+        return execute(TransactionMetrics.NOOP, sessionFactory, handler);
+    }
+
+    public static <T> T execute(TransactionMetrics metrics, SessionFactory sessionFactory, Function<Session, T> handler) {
+        TransactionHandler transactionHandler = new TransactionHandler(sessionFactory, true, metrics);
         transactionHandler.beforeStart();
         try {
             T result = handler.apply(transactionHandler.getSession());
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import io.appform.dropwizard.sharding.dao.testdata.entities.Order;
+import io.appform.dropwizard.sharding.dao.testdata.entities.OrderItem;
+import io.dropwizard.Configuration;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.db.PooledDataSourceFactory;
+import io.dropwizard.hibernate.HibernateBundle;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import io.dropwizard.setup.Environment;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Builds session factories for H2 shards with {@link ParallelSessionFactoryFactory} and checks what the shard bundles
+ * get back.
+ */
+public class ParallelSessionFactoryFactoryTest {
+
+    private static final List<Class<?>> ENTITIES = ImmutableList.of(Order.class, OrderItem.class);
+
+    /**
+     * Records the session factories it builds and the threads it builds them on. Fails for the given urls.
+     */
+    private static class TestSessionFactoryFactory extends ParallelSessionFactoryFactory {
+        private final List<SessionFactory> sessionFactories = new CopyOnWriteArrayList<>();
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+        private final Set<String> failing;
+
+        private TestSessionFactoryFactory(String... failing) {
+            this.failing = ImmutableSet.copyOf(failing);
+        }
+
+        @Override
+        public SessionFactory build(HibernateBundle<?> bundle,
+                                    Environment environment,
+                                    PooledDataSourceFactory dbConfig,
+                                    ManagedDataSource dataSource,
+                                    List<Class<?>> entities) {
+            threads.add(Thread.currentThread().getName());
+            if (failing.contains(dbConfig.getUrl())) {
+                throw new IllegalStateException("Could not build " + dbConfig.getUrl());
+            }
+            final SessionFactory sessionFactory = super.build(bundle, environment, dbConfig, dataSource, entities);
+            sessionFactories.add(sessionFactory);
+            return sessionFactory;
+        }
+    }
+
+    /**
+     * Hands out spied data sources so that stopping them can be verified.
+     */
+    private static class TestDataSourceFactory extends DataSourceFactory {
+        private final List<ManagedDataSource> dataSources = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ManagedDataSource build(MetricRegistry metricRegistry, String name) {
+            final ManagedDataSource dataSource = spy(super.build(metricRegistry, name));
+            dataSources.add(dataSource);
+            return dataSource;
+        }
+    }
+
+    private Environment environment;
+
+    @BeforeEach
+    public void setup() {
+        environment = new Environment("test",
+                                      Jackson.newObjectMapper(),
+                                      Validators.newValidatorFactory(),
+                                      new MetricRegistry(),
+                                      getClass().getClassLoader(),
+                                      new HealthCheckRegistry(),
+                                      new Configuration());
+    }
+
+    @AfterEach
+    public void after() throws Exception {
+        for (LifeCycle managed : environment.lifecycle().getManagedObjects()) {
+            managed.stop();
+        }
+    }
+
+    @Test
+    public void testBundlesGetPrebuiltSessionFactories() throws Exception {
+        final TestSessionFactoryFactory factory = new TestSessionFactoryFactory();
+        final List<ParallelSessionFactoryFactory.Shard> shards = shards(factory, 2);
+
+        factory.buildAll(shards, ENTITIES, new Configuration(), environment, 2);
+        Assertions.assertEquals(2, factory.sessionFactories.size());
+        Assertions.assertTrue(factory.threads.stream().allMatch(thread -> thread.startsWith("session-factory-builder-")));
+        Assertions.assertTrue(environment.lifecycle().getManagedObjects().isEmpty());
+
+        final List<SessionFactory> sessionFactories = buildBundles(factory, shards);
+        Assertions.assertEquals(2, factory.threads.size());
+        Assertions.assertEquals(ImmutableSet.copyOf(factory.sessionFactories), ImmutableSet.copyOf(sessionFactories));
+        Assertions.assertEquals(2, environment.lifecycle().getManagedObjects().size());
+        for (SessionFactory sessionFactory : sessionFactories) {
+            try (Session session = sessionFactory.openSession()) {
+                Assertions.assertEquals(1, ((Number) session.createNativeQuery("select 1").uniqueResult()).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testFailuresAreCollected() throws Exception {
+        final TestSessionFactoryFactory factory = new TestSessionFactoryFactory(url("failing-1"), url("failing-2"));
+        final List<ParallelSessionFactoryFactory.Shard> shards = ImmutableList.of(
+                shard(factory, "shard-0", url("working")),
+                shard(factory, "shard-1", url("failing-1")),
+                shard(factory, "shard-2", url("failing-2")));
+
+        final RuntimeException error = Assertions.assertThrows(
+                RuntimeException.class,
+                () -> factory.buildAll(shards, ENTITIES, new Configuration(), environment, 3));
+        Assertions.assertEquals(3, factory.threads.size());
+        Assertions.assertTrue(error.getCause() instanceof IllegalStateException);
+        Assertions.assertEquals(1, error.getSuppressed().length);
+        Assertions.assertEquals(
+                ImmutableSet.of("Could not build " + url("failing-1"), "Could not build " + url("failing-2")),
+                ImmutableSet.of(error.getCause().getMessage(), error.getSuppressed()[0].getMessage()));
+
+        Assertions.assertEquals(1, factory.sessionFactories.size());
+        Assertions.assertTrue(factory.sessionFactories.get(0).isClosed());
+        for (ParallelSessionFactoryFactory.Shard shard : shards) {
+            final List<ManagedDataSource> dataSources = ((TestDataSourceFactory) shard.getDataSourceFactory()).dataSources;
+            Assertions.assertEquals(1, dataSources.size());
+            verify(dataSources.get(0)).stop();
+        }
+        Assertions.assertTrue(environment.lifecycle().getManagedObjects().isEmpty());
+    }
+
+    @Test
+    public void testSequentialBuild() throws Exception {
+        final TestSessionFactoryFactory factory = new TestSessionFactoryFactory();
+        final List<ParallelSessionFactoryFactory.Shard> shards = shards(factory, 2);
+
+        factory.buildAll(shards, ENTITIES, new Configuration(), environment, 1);
+        Assertions.assertTrue(factory.threads.isEmpty());
+
+        final List<SessionFactory> sessionFactories = buildBundles(factory, shards);
+        Assertions.assertEquals(2, sessionFactories.size());
+        Assertions.assertEquals(Arrays.asList(Thread.currentThread().getName(), Thread.currentThread().getName()),
+                                factory.threads);
+        Assertions.assertEquals(2, environment.lifecycle().getManagedObjects().size());
+    }
+
+    private List<SessionFactory> buildBundles(ParallelSessionFactoryFactory factory,
+                                              List<ParallelSessionFactoryFactory.Shard> shards) {
+        return shards.stream()
+                .map(shard -> factory.build(
+                        shard.getBundle(), environment, shard.getDataSourceFactory(), ENTITIES, shard.getName()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<ParallelSessionFactoryFactory.Shard> shards(ParallelSessionFactoryFactory factory,
+                                                                   int numShards) {
+        final String db = UUID.randomUUID().toString();
+        return IntStream.range(0, numShards)
+                .mapToObj(shard -> shard(factory, "shard-" + shard, url(db + "-" + shard)))
+                .collect(Collectors.toList());
+    }
+
+    private static ParallelSessionFactoryFactory.Shard shard(ParallelSessionFactoryFactory factory,
+                                                             String name,
+                                                             String url) {
+        final Map<String, String> properties = Maps.newHashMap();
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create");
+
+        final TestDataSourceFactory dataSourceFactory = new TestDataSourceFactory();
+        dataSourceFactory.setDriverClass("org.h2.Driver");
+        dataSourceFactory.setUrl(url);
+        dataSourceFactory.setValidationQuery("select 1");
+        dataSourceFactory.setProperties(properties);
+
+        final HibernateBundle<Configuration> bundle = new HibernateBundle<Configuration>(
+                ImmutableList.copyOf(ENTITIES), factory) {
+            @Override
+            public PooledDataSourceFactory getDataSourceFactory(Configuration configuration) {
+                return dataSourceFactory;
+            }
+
+            @Override
+            protected String name() {
+                return name;
+            }
+        };
+        return new ParallelSessionFactoryFactory.Shard(bundle, dataSourceFactory, name);
+    }
+
+    private static String url(String db) {
+        return "jdbc:h2:mem:" + db;
+    }
+}
@@ -25,6 +25,7 @@ import io.appform.dropwizard.sharding.dao.testdata.entities.Audit;
 import io.appform.dropwizard.sharding.dao.testdata.entities.Phone;
 import io.appform.dropwizard.sharding.dao.testdata.entities.TestEntity;
 import io.appform.dropwizard.sharding.dao.testdata.entities.Transaction;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.appform.dropwizard.sharding.sharding.BalancedShardManager;
 import io.appform.dropwizard.sharding.sharding.ShardManager;
 import io.appform.dropwizard.sharding.sharding.impl.ConsistentHashBucketIdExtractor;
@@ -45,11 +46,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 
 public class CacheableLookupDaoTest {
 
     private List<SessionFactory> sessionFactories = Lists.newArrayList();
+    private List<SessionFactory> replicaSessionFactories = Lists.newArrayList();
     private CacheableLookupDao<TestEntity> lookupDao;
     private CacheableLookupDao<Phone> phoneDao;
     private CacheableRelationalDao<Transaction> transactionDao;
@@ -255,6 +258,7 @@ public class CacheableLookupDaoTest {
     @AfterEach
     public void after() {
         sessionFactories.forEach(SessionFactory::close);
+        replicaSessionFactories.forEach(SessionFactory::close);
     }
 
     @Test
@@ -306,6 +310,51 @@ public class CacheableLookupDaoTest {
         Assertions.assertFalse(updateStatus);
     }
 
+    @Test
+    public void testCacheMissReadsFromPrimary() throws Exception {
+        for (int i = 0; i < sessionFactories.size(); i++) {
+            replicaSessionFactories.add(buildSessionFactory(String.format("db_replica_%d", i)));
+        }
+        final ShardManager shardManager = new BalancedShardManager(sessionFactories.size());
+        final ShardCalculator<String> shardCalculator
+                = new ShardCalculator<>(shardManager, new ConsistentHashBucketIdExtractor<>(shardManager));
+        final Map<String, TestEntity> cache = new HashMap<>();
+        final CacheableLookupDao<TestEntity> replicatedDao = new CacheableLookupDao<>(
+                sessionFactories,
+                TestEntity.class,
+                shardCalculator,
+                new LookupCache<TestEntity>() {
+                    @Override
+                    public void put(String key, TestEntity entity) {
+                        cache.put(key, entity);
+                    }
+
+                    @Override
+                    public boolean exists(String key) {
+                        return cache.containsKey(key);
+                    }
+
+                    @Override
+                    public TestEntity get(String key) {
+                        return cache.get(key);
+                    }
+                },
+                new ReplicaManager(replicaSessionFactories.stream()
+                                           .map(ImmutableList::of)
+                                           .collect(Collectors.toList())));
+        new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator).save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+
+        //Replicas are independent dbs here and never see the row
+        Assertions.assertTrue(replicatedDao.get("testId").isPresent());
+        Assertions.assertEquals("Some Text", cache.get("testId").getText());
+        cache.clear();
+        Assertions.assertTrue(replicatedDao.exists("testId"));
+        Assertions.assertTrue(cache.containsKey("testId"));
+    }
+
     @Test
     public void testScatterGather() throws Exception {
         List<TestEntity> results = lookupDao.scatterGather(DetachedCriteria.forClass(TestEntity.class)
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.appform.dropwizard.sharding.dao;
+
+import com.codahale.metrics.MetricRegistry;
+import io.appform.dropwizard.sharding.config.KeyFilterConfig;
+import io.appform.dropwizard.sharding.utils.KeyFilterMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class KeyFiltersTest {
+
+    @Test
+    public void testSingleWriterMissesKeysOfOtherWriters() {
+        final Set<String> shard = ConcurrentHashMap.newKeySet();
+        shard.add("existing");
+        final KeyFilters filters = filters(KeyFilterConfig.builder()
+                                                   .expectedKeysPerShard(100)
+                                                   .singleWriter(true)
+                                                   .build());
+        filters.build(0, shard::stream);
+
+        //Another process inserts a key. This is why single writer mode must only be used by the only writer.
+        shard.add("other");
+        Assertions.assertTrue(filters.mightContain(0, "existing"));
+        Assertions.assertFalse(filters.mightContain(0, "other"));
+
+        filters.build(0, shard::stream);
+        Assertions.assertTrue(filters.mightContain(0, "other"));
+    }
+
+    @Test
+    public void testOldFiltersDoNotRuleKeysOut() throws Exception {
+        final Set<String> shard = ConcurrentHashMap.newKeySet();
+        final KeyFilters fresh = filters(KeyFilterConfig.builder()
+                                                 .expectedKeysPerShard(100)
+                                                 .maxFilterAgeMs(60_000)
+                                                 .build());
+        final KeyFilters old = filters(KeyFilterConfig.builder()
+                                               .expectedKeysPerShard(100)
+                                               .maxFilterAgeMs(0)
+                                               .build());
+        fresh.build(0, shard::stream);
+        old.build(0, shard::stream);
+        shard.add("other");
+        Thread.sleep(5);
+
+        //Keys of other writers are missed only while the filter is within its age
+        Assertions.assertFalse(fresh.mightContain(0, "other"));
+        Assertions.assertTrue(old.mightContain(0, "other"));
+        Assertions.assertTrue(old.mightContain(0, "missing"));
+    }
+
+    @Test
+    public void testDefaultFiltersDoNotRuleKeysOut() {
+        final Set<String> shard = ConcurrentHashMap.newKeySet();
+        final KeyFilters filters = filters(KeyFilterConfig.builder()
+                                                   .expectedKeysPerShard(100)
+                                                   .build());
+        filters.build(0, shard::stream);
+        shard.add("other");
+
+        //Another process may have just saved the key
+        Assertions.assertTrue(filters.mightContain(0, "other"));
+        Assertions.assertTrue(filters.mightContain(0, "missing"));
+    }
+
+    @Test
+    public void testLookupsGoToDatabaseUntilBuilt() {
+        final KeyFilters filters = filters(KeyFilterConfig.builder()
+                                                   .expectedKeysPerShard(100)
+                                                   .singleWriter(true)
+                                                   .build());
+        Assertions.assertTrue(filters.mightContain(0, "missing"));
+        filters.put(0, "saved");
+        Assertions.assertTrue(filters.mightContain(0, "missing"));
+    }
+
+    private static KeyFilters filters(KeyFilterConfig config) {
+        return new KeyFilters(1, config, new KeyFilterMetrics(new MetricRegistry(), "test"));
+    }
+}
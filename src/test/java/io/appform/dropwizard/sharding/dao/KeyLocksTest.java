@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import io.appform.dropwizard.sharding.config.KeyLockConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyLocksTest {
+
+    @Test
+    public void testSameKeyCallsTakeTurns() throws Exception {
+        final KeyLocks keyLocks = new KeyLocks(KeyLockConfig.builder().build());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executorService.submit(() -> keyLocks.execute("key", () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(2);
+                    running.decrementAndGet();
+                    return true;
+                })));
+            }
+            for (Future<Boolean> result : results) {
+                Assertions.assertTrue(result.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testRunsWithoutLockAfterTimeout() throws Exception {
+        final KeyLocks keyLocks = new KeyLocks(KeyLockConfig.builder()
+                .stripes(1)
+                .maxWaitMs(10)
+                .build());
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final Future<Boolean> holder = executorService.submit(() -> keyLocks.execute("key1", () -> {
+                holding.countDown();
+                awaitUninterruptibly(release);
+                return true;
+            }));
+            holding.await();
+            Assertions.assertTrue(keyLocks.execute("key2", () -> true));
+            release.countDown();
+            Assertions.assertTrue(holder.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao;
+
+import io.appform.dropwizard.sharding.dao.testdata.entities.TestEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.criterion.Restrictions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Compares key lookups using criteria against the precompiled queries in {@link KeyQueries}.
+ * Only run with the benchmark profile: {@code mvn test -Pbenchmark}.
+ */
+@Slf4j
+@Tag("benchmark")
+public class KeyQueriesBenchmarkTest {
+
+    private static final int NUM_ENTITIES = 100;
+    private static final int NUM_LOOKUPS = 5_000;
+
+    private SessionFactory sessionFactory;
+    private KeyQueries keyQueries;
+
+    @BeforeEach
+    public void before() {
+        Configuration configuration = new Configuration();
+        configuration.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        configuration.setProperty("hibernate.connection.url", "jdbc:h2:mem:key_queries_benchmark");
+        configuration.setProperty("hibernate.hbm2ddl.auto", "create");
+        configuration.addAnnotatedClass(TestEntity.class);
+        StandardServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
+                .applySettings(configuration.getProperties())
+                .build();
+        sessionFactory = configuration.buildSessionFactory(serviceRegistry);
+        keyQueries = new KeyQueries(TestEntity.class, "externalId");
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < NUM_ENTITIES; i++) {
+                session.save(TestEntity.builder()
+                        .externalId("key" + i)
+                        .text("Text " + i)
+                        .build());
+            }
+            session.getTransaction().commit();
+        }
+    }
+
+    @AfterEach
+    public void after() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void compareCriteriaWithPrecompiledQuery() {
+        final BiFunction<Session, String, TestEntity> criteriaLookup = (session, key) -> (TestEntity) session
+                .createCriteria(TestEntity.class)
+                .add(Restrictions.eq("externalId", key))
+                .uniqueResult();
+        final BiFunction<Session, String, TestEntity> queryLookup = (session, key) -> keyQueries
+                .lookup(session, TestEntity.class, key)
+                .uniqueResult();
+
+        //Warm up both paths before measuring
+        run(criteriaLookup, NUM_LOOKUPS / 5);
+        run(queryLookup, NUM_LOOKUPS / 5);
+
+        final long criteriaNanos = run(criteriaLookup, NUM_LOOKUPS);
+        final long queryNanos = run(queryLookup, NUM_LOOKUPS);
+        log.info("{} key lookups: criteria {} ms, precompiled query {} ms",
+                 NUM_LOOKUPS,
+                 TimeUnit.NANOSECONDS.toMillis(criteriaNanos),
+                 TimeUnit.NANOSECONDS.toMillis(queryNanos));
+    }
+
+    private long run(BiFunction<Session, String, TestEntity> lookup, int numLookups) {
+        final long start = System.nanoTime();
+        try (Session session = sessionFactory.openSession()) {
+            for (int i = 0; i < numLookups; i++) {
+                final String key = "key" + (i % NUM_ENTITIES);
+                final TestEntity entity = lookup.apply(session, key);
+                Assertions.assertEquals(key, entity.getExternalId());
+                session.clear();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -17,43 +17,74 @@
 
 package io.appform.dropwizard.sharding.dao;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import io.appform.dropwizard.sharding.config.BatchLoaderConfig;
+import io.appform.dropwizard.sharding.config.KeyFilterConfig;
+import io.appform.dropwizard.sharding.config.KeyLockConfig;
 import io.appform.dropwizard.sharding.dao.testdata.entities.Audit;
+import io.appform.dropwizard.sharding.dao.testdata.entities.Customer;
 import io.appform.dropwizard.sharding.dao.testdata.entities.Phone;
 import io.appform.dropwizard.sharding.dao.testdata.entities.TestEntity;
 import io.appform.dropwizard.sharding.dao.testdata.entities.Transaction;
+import io.appform.dropwizard.sharding.dao.testdata.entities.VersionedEntity;
+import io.appform.dropwizard.sharding.replicas.ConsistencySession;
+import io.appform.dropwizard.sharding.replicas.ReadPreferences;
+import io.appform.dropwizard.sharding.replicas.ReplicaManager;
 import io.appform.dropwizard.sharding.sharding.BalancedShardManager;
 import io.appform.dropwizard.sharding.sharding.ShardManager;
 import io.appform.dropwizard.sharding.sharding.impl.ConsistentHashBucketIdExtractor;
+import io.appform.dropwizard.sharding.utils.DaoMetrics;
 import io.appform.dropwizard.sharding.utils.ShardCalculator;
+import io.appform.dropwizard.sharding.utils.TransactionMetrics;
 import lombok.val;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
 
 public class LookupDaoTest {
 
     private List<SessionFactory> sessionFactories = Lists.newArrayList();
+    private List<SessionFactory> replicaSessionFactories = Lists.newArrayList();
+    private ShardCalculator<String> shardCalculator;
     private LookupDao<TestEntity> lookupDao;
     private LookupDao<Phone> phoneDao;
     private RelationalDao<Transaction> transactionDao;
     private RelationalDao<Audit> auditDao;
+    private LookupDao<VersionedEntity> versionedDao;
+    private LookupDao<Customer> customerDao;
+    private DaoMetrics daoMetrics;
+    private final List<String> statements = new CopyOnWriteArrayList<>();
+    private volatile String failingStatement;
 
     private SessionFactory buildSessionFactory(String dbName) {
         Configuration configuration = new Configuration();
@@ -70,6 +101,17 @@ public class LookupDaoTest {
         configuration.addAnnotatedClass(Phone.class);
         configuration.addAnnotatedClass(Transaction.class);
         configuration.addAnnotatedClass(Audit.class);
+        configuration.addAnnotatedClass(VersionedEntity.class);
+        configuration.addAnnotatedClass(Customer.class);
+        configuration.addAnnotatedClass(GlobalIndexEntry.class);
+        configuration.getProperties().put("hibernate.session_factory.statement_inspector",
+                                          (StatementInspector) sql -> {
+                                              statements.add(sql);
+                                              if (null != failingStatement && sql.startsWith(failingStatement)) {
+                                                  throw new IllegalStateException("Failing " + sql);
+                                              }
+                                              return sql;
+                                          });
 
         StandardServiceRegistry serviceRegistry
                 = new StandardServiceRegistryBuilder().applySettings(
@@ -84,18 +126,24 @@ public class LookupDaoTest {
             sessionFactories.add(buildSessionFactory(String.format("db_%d", i)));
         }
         final ShardManager shardManager = new BalancedShardManager(sessionFactories.size());
-        final ShardCalculator<String> shardCalculator = new ShardCalculator<>(shardManager,
+        shardCalculator = new ShardCalculator<>(shardManager,
                                                                               new ConsistentHashBucketIdExtractor<>(
                                                                                       shardManager));
-        lookupDao = new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator);
+        daoMetrics = new DaoMetrics(new MetricRegistry(), "test");
+        lookupDao = new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator, ReplicaManager.noReplicas(),
+                                    daoMetrics);
         phoneDao = new LookupDao<>(sessionFactories, Phone.class, shardCalculator);
         transactionDao = new RelationalDao<>(sessionFactories, Transaction.class, shardCalculator);
         auditDao = new RelationalDao<>(sessionFactories, Audit.class, shardCalculator);
+        versionedDao = new LookupDao<>(sessionFactories, VersionedEntity.class, shardCalculator,
+                                       ReplicaManager.noReplicas(), daoMetrics);
+        customerDao = new LookupDao<>(sessionFactories, Customer.class, shardCalculator);
     }
 
     @AfterEach
     public void after() {
         sessionFactories.forEach(SessionFactory::close);
+        replicaSessionFactories.forEach(SessionFactory::close);
     }
 
     @Test
@@ -382,4 +430,602 @@ public class LookupDaoTest {
         );
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadFromReplica() throws Exception {
+        for (int i = 0; i < sessionFactories.size(); i++) {
+            replicaSessionFactories.add(buildSessionFactory(String.format("db_replica_%d", i)));
+        }
+        final ReplicaManager replicaManager = new ReplicaManager(replicaSessionFactories.stream()
+                .map(ImmutableList::of)
+                .collect(Collectors.toList()));
+        final LookupDao<TestEntity> replicatedDao
+                = new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator, replicaManager);
+        replicatedDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+
+        //Replicas are independent dbs here, so the write is visible only on primary
+        Assertions.assertFalse(replicatedDao.get("testId").isPresent());
+        Assertions.assertFalse(replicatedDao.exists("testId"));
+        Assertions.assertTrue(replicatedDao.scatterGather(DetachedCriteria.forClass(TestEntity.class)).isEmpty());
+        Assertions.assertTrue(ReadPreferences.fromPrimary(() -> replicatedDao.get("testId")).isPresent());
+        Assertions.assertEquals(1, ReadPreferences.fromPrimary(
+                () -> replicatedDao.scatterGather(DetachedCriteria.forClass(TestEntity.class))).size());
+
+        //Reads after a write in the same consistency session skip replicas that might not have caught up
+        final ConsistencySession session = new ConsistencySession();
+        session.execute(() -> replicatedDao.save(TestEntity.builder()
+                .externalId("testId2")
+                .text("Some Text")
+                .build()));
+        Assertions.assertTrue(session.execute(() -> replicatedDao.get("testId2")).isPresent());
+        Assertions.assertFalse(replicatedDao.get("testId2").isPresent());
+    }
+
+    @Test
+    public void testLightReadMetrics() throws Exception {
+        final long lightSetups = daoMetrics.getTransactions().timer(true, TransactionMetrics.Phase.SETUP).getCount();
+        final long lightQueries = daoMetrics.getTransactions().timer(true, TransactionMetrics.Phase.QUERY).getCount();
+        final long setups = daoMetrics.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount();
+        lookupDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+        Assertions.assertEquals(setups + 1, daoMetrics.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount());
+
+        //Single key reads skip the managed session context and the transaction
+        Assertions.assertEquals("Some Text", lookupDao.get("testId").get().getText());
+        Assertions.assertFalse(lookupDao.get("testId1").isPresent());
+        Assertions.assertEquals(lightSetups + 2, daoMetrics.getTransactions().timer(true, TransactionMetrics.Phase.SETUP).getCount());
+        Assertions.assertEquals(lightQueries + 2, daoMetrics.getTransactions().timer(true, TransactionMetrics.Phase.QUERY).getCount());
+        Assertions.assertEquals(setups + 1, daoMetrics.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount());
+    }
+
+    @Test
+    public void testTransactionMetricsPerNamespace() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final DaoMetrics first = new DaoMetrics(registry, "first");
+        final DaoMetrics second = new DaoMetrics(registry, "second");
+        final LookupDao<TestEntity> firstDao = new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator,
+                                                               ReplicaManager.noReplicas(), first);
+        firstDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+        Assertions.assertEquals(1, first.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount());
+        Assertions.assertEquals(0, second.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount());
+        Assertions.assertTrue(registry.getTimers().containsKey("io.appform.dropwizard.sharding.utils.Transactions.first.setup"));
+        Assertions.assertTrue(registry.getTimers().containsKey("io.appform.dropwizard.sharding.utils.Transactions.second.setup"));
+    }
+
+    @Test
+    public void testStatelessReads() throws Exception {
+        lookupDao.setReadMode(ReadMode.STATELESS);
+        lookupDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+        lookupDao.save(TestEntity.builder()
+                .externalId("testId2")
+                .text("Some Other Text")
+                .build());
+
+        Assertions.assertEquals("Some Text", lookupDao.get("testId").get().getText());
+        Assertions.assertFalse(lookupDao.get("testId3").isPresent());
+        Assertions.assertEquals(2, lookupDao.get(ImmutableList.of("testId", "testId2", "testId3")).size());
+        Assertions.assertEquals(1, lookupDao.scatterGather(DetachedCriteria.forClass(TestEntity.class)
+                                                                   .add(Restrictions.eq("text", "Some Other Text")))
+                .size());
+    }
+
+    @Test
+    public void testExistsAll() throws Exception {
+        for (String key : ImmutableList.of("testId1", "testId2", "testId3")) {
+            lookupDao.save(TestEntity.builder()
+                    .externalId(key)
+                    .text("Some Text")
+                    .build());
+        }
+        Assertions.assertTrue(lookupDao.exists("testId2"));
+        Assertions.assertFalse(lookupDao.exists("testId4"));
+
+        final Map<String, Boolean> result = lookupDao.existsAll(
+                ImmutableList.of("testId4", "testId1", "testId3", "testId1", "testId5"));
+        Assertions.assertEquals(ImmutableList.of("testId4", "testId1", "testId3", "testId5"),
+                                ImmutableList.copyOf(result.keySet()));
+        Assertions.assertEquals(ImmutableList.of(false, true, true, false), ImmutableList.copyOf(result.values()));
+    }
+
+    @Test
+    public void testDeleteAll() throws Exception {
+        Assertions.assertEquals(DeleteMode.CASCADING, lookupDao.getDeleteMode());
+        for (String key : ImmutableList.of("testId1", "testId2", "testId3", "testId4")) {
+            lookupDao.save(TestEntity.builder()
+                    .externalId(key)
+                    .text("Some Text")
+                    .build());
+        }
+        Assertions.assertTrue(lookupDao.delete("testId1"));
+        Assertions.assertFalse(lookupDao.delete("testId1"));
+        Assertions.assertEquals(2, lookupDao.deleteAll(ImmutableList.of("testId1", "testId2", "testId3", "testId5")));
+
+        lookupDao.setDeleteMode(DeleteMode.DIRECT);
+        Assertions.assertEquals(1, lookupDao.deleteAll(ImmutableList.of("testId2", "testId4")));
+        Assertions.assertFalse(lookupDao.exists("testId4"));
+    }
+
+    @Test
+    public void testDirtyColumnUpdate() throws Exception {
+        lookupDao.setUpdateMode(UpdateMode.DIRTY_COLUMNS);
+        lookupDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+
+        Assertions.assertTrue(lookupDao.update("testId", entity -> {
+            entity.get().setText("Updated Text");
+            return entity.get();
+        }));
+        Assertions.assertEquals("Updated Text", lookupDao.get("testId").get().getText());
+
+        Assertions.assertTrue(lookupDao.updateInLock("testId", entity -> TestEntity.builder()
+                .externalId("testId")
+                .text("Replaced Text")
+                .build()));
+        Assertions.assertEquals("Replaced Text", lookupDao.get("testId").get().getText());
+
+        Assertions.assertTrue(lookupDao.update("testId", Optional::get));
+        Assertions.assertEquals("Replaced Text", lookupDao.get("testId").get().getText());
+        Assertions.assertFalse(lookupDao.update("testId1", entity -> entity.orElse(null)));
+
+        //Only the changed column is sent to the database
+        customerDao.setUpdateMode(UpdateMode.DIRTY_COLUMNS);
+        customerDao.save(Customer.builder()
+                .externalId("customer1")
+                .email("one@example.com")
+                .name("One")
+                .build());
+        statements.clear();
+        Assertions.assertTrue(customerDao.update("customer1", customer -> {
+            customer.get().setName("Renamed");
+            return customer.get();
+        }));
+        Assertions.assertEquals(ImmutableList.of("update customers set name=? where ext_id=?"), updates("customers"));
+
+        statements.clear();
+        Assertions.assertTrue(customerDao.updateInLock("customer1", customer -> Customer.builder()
+                .externalId("customer1")
+                .email("one@example.com")
+                .name("Renamed again")
+                .build()));
+        Assertions.assertEquals(ImmutableList.of("update customers set name=? where ext_id=?"), updates("customers"));
+
+        //Changes made in place to an entity the updater does not return are not written
+        statements.clear();
+        Assertions.assertFalse(customerDao.update("customer1", customer -> {
+            customer.get().setName("Discarded");
+            return null;
+        }));
+        Assertions.assertTrue(updates("customers").isEmpty());
+        Assertions.assertEquals("Renamed again", customerDao.get("customer1").get().getName());
+    }
+
+    private List<String> updates(String table) {
+        return statements.stream()
+                .map(sql -> sql.replaceAll("\\s+", " ").replace(" = ", "=").trim().toLowerCase())
+                .filter(sql -> sql.startsWith("update " + table + " "))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testOptimisticUpdate() throws Exception {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> lookupDao.setConcurrencyMode(ConcurrencyMode.OPTIMISTIC));
+        versionedDao.setConcurrencyMode(ConcurrencyMode.OPTIMISTIC);
+        versionedDao.save(VersionedEntity.builder()
+                .externalId("testId")
+                .text("Some Text")
+                .build());
+        final long conflicts = daoMetrics.getOptimisticLocks().getConflicts().getCount();
+
+        final AtomicInteger calls = new AtomicInteger();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Assertions.assertTrue(versionedDao.updateInLock("testId", entity -> {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        executorService.submit(() -> versionedDao.update("testId", other -> {
+                            other.get().setText("Other Text");
+                            return other.get();
+                        })).get();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                entity.get().setText(entity.get().getText() + " Updated");
+                return entity.get();
+            }));
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(conflicts + 1, daoMetrics.getOptimisticLocks().getConflicts().getCount());
+        final VersionedEntity updated = versionedDao.get("testId").get();
+        Assertions.assertEquals("Other Text Updated", updated.getText());
+
+        versionedDao.lockAndGetExecutor("testId")
+                .mutate(entity -> entity.setText("Locked Text"))
+                .execute();
+        final VersionedEntity locked = versionedDao.get("testId").get();
+        Assertions.assertEquals("Locked Text", locked.getText());
+        Assertions.assertTrue(locked.getVersion() > updated.getVersion());
+    }
+
+    @Test
+    public void testUpdateInLockWithKeyLocks() throws Exception {
+        lookupDao.enableKeyLocks(KeyLockConfig.builder().build());
+        lookupDao.save(TestEntity.builder()
+                .externalId("testId")
+                .text("0")
+                .build());
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = IntStream.range(0, 16)
+                    .mapToObj(i -> executorService.submit(() -> lookupDao.updateInLock("testId", entity -> {
+                        entity.get().setText(String.valueOf(Integer.parseInt(entity.get().getText()) + 1));
+                        return entity.get();
+                    })))
+                    .collect(Collectors.toList());
+            for (Future<Boolean> result : results) {
+                Assertions.assertTrue(result.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertEquals("16", lookupDao.get("testId").get().getText());
+    }
+
+    @Test
+    public void testBatchLoader() throws Exception {
+        final List<String> keys = IntStream.range(0, 20)
+                .mapToObj(i -> "testId" + i)
+                .collect(Collectors.toList());
+        for (String key : keys) {
+            lookupDao.save(TestEntity.builder()
+                    .externalId(key)
+                    .text("Text " + key)
+                    .build());
+        }
+        final LookupBatchLoader<TestEntity> loader = new LookupBatchLoader<>(lookupDao, BatchLoaderConfig.builder()
+                .maxBatchSize(8)
+                .maxDelayMicros(50_000)
+                .build());
+        final long setups = daoMetrics.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount();
+        final List<CompletableFuture<Optional<TestEntity>>> results = keys.stream()
+                .map(loader::load)
+                .collect(Collectors.toList());
+        final CompletableFuture<Optional<TestEntity>> missing = loader.load("testIdX");
+        for (int i = 0; i < keys.size(); i++) {
+            Assertions.assertEquals("Text " + keys.get(i), results.get(i).get().get().getText());
+        }
+        Assertions.assertFalse(missing.get().isPresent());
+        Assertions.assertTrue(daoMetrics.getTransactions().timer(false, TransactionMetrics.Phase.SETUP).getCount() - setups < 8);
+        Assertions.assertEquals("Text testId3", loader.get("testId3").get().getText());
+        loader.stop();
+    }
+
+    @Test
+    public void testBatchLoaderKeepsReadContext() throws Exception {
+        for (int i = 0; i < sessionFactories.size(); i++) {
+            replicaSessionFactories.add(buildSessionFactory(String.format("db_replica_%d", i)));
+        }
+        final ReplicaManager replicaManager = new ReplicaManager(replicaSessionFactories.stream()
+                .map(ImmutableList::of)
+                .collect(Collectors.toList()));
+        final LookupDao<TestEntity> replicatedDao
+                = new LookupDao<>(sessionFactories, TestEntity.class, shardCalculator, replicaManager);
+        final LookupBatchLoader<TestEntity> loader = new LookupBatchLoader<>(replicatedDao, BatchLoaderConfig.builder()
+                .maxBatchSize(8)
+                .maxDelayMicros(50_000)
+                .build());
+        try {
+            final ConsistencySession session = new ConsistencySession();
+            session.execute(() -> replicatedDao.save(TestEntity.builder()
+                    .externalId("testId")
+                    .text("Some Text")
+                    .build()));
+
+            //Replicas are independent dbs here, so the write is visible only on primary
+            Assertions.assertFalse(loader.get("testId").isPresent());
+
+            //Batches are read with the preference and session of the callers, not of the scheduler thread
+            final CompletableFuture<Optional<TestEntity>> fromPrimary
+                    = ReadPreferences.fromPrimary(() -> loader.load("testId"));
+            final CompletableFuture<Optional<TestEntity>> inSession = session.execute(() -> loader.load("testId"));
+            Assertions.assertTrue(fromPrimary.get().isPresent());
+            Assertions.assertTrue(inSession.get().isPresent());
+        } finally {
+            loader.stop();
+        }
+    }
+
+    @Test
+    public void testReadOnlyContext() throws Exception {
+        final String phoneNumber = "9830968020";
+        final Phone savedPhone = phoneDao.save(Phone.builder()
+                                                       .phone(phoneNumber)
+                                                       .build())
+                .get();
+        for (String transactionId : ImmutableList.of("testTxn1", "testTxn2", "testTxn3")) {
+            transactionDao.save(phoneNumber, Transaction.builder()
+                    .transactionId(transactionId)
+                    .to("9830703153")
+                    .amount(100)
+                    .phone(savedPhone)
+                    .build());
+        }
+
+        final List<Transaction> transactions = new ArrayList<>();
+        final List<Transaction> firstTransactions = new ArrayList<>();
+        final Optional<Phone> phone = phoneDao.readOnlyExecutor(phoneNumber)
+                .readAugmentParent(transactionDao,
+                                   DetachedCriteria.forClass(Transaction.class)
+                                           .add(Restrictions.eq("phone.id", savedPhone.getId())),
+                                   (parent, children) -> transactions.addAll(children))
+                .readAugmentParent(transactionDao,
+                                   DetachedCriteria.forClass(Transaction.class)
+                                           .add(Restrictions.eq("phone.id", savedPhone.getId())),
+                                   0,
+                                   1,
+                                   (parent, children) -> firstTransactions.addAll(children))
+                .execute();
+        Assertions.assertTrue(phone.isPresent());
+        Assertions.assertEquals(3, transactions.size());
+        Assertions.assertEquals(1, firstTransactions.size());
+
+        Assertions.assertFalse(phoneDao.readOnlyExecutor("9830968021")
+                                       .apply(parent -> {
+                                           throw new IllegalStateException("Should not be called");
+                                       })
+                                       .execute()
+                                       .isPresent());
+    }
+
+    @Test
+    public void testGetByIndex() throws Exception {
+        customerDao.save(Customer.builder()
+                .externalId("customer1")
+                .email("one@example.com")
+                .name("One")
+                .build());
+        customerDao.save(Customer.builder()
+                .externalId("customer2")
+                .email("shared@example.com")
+                .name("Two")
+                .build());
+        customerDao.save(Customer.builder()
+                .externalId("customer3")
+                .email("shared@example.com")
+                .name("Three")
+                .build());
+
+        Assertions.assertEquals("customer1", customerDao.getByIndex("email", "one@example.com").get(0).getExternalId());
+        Assertions.assertEquals(ImmutableList.of("customer2", "customer3"),
+                                customerDao.getByIndex("email", "shared@example.com")
+                                        .stream()
+                                        .map(Customer::getExternalId)
+                                        .sorted()
+                                        .collect(Collectors.toList()));
+        Assertions.assertTrue(customerDao.getByIndex("email", "none@example.com").isEmpty());
+
+        //Updates move the entity to the entry of the new value
+        Assertions.assertTrue(customerDao.update("customer1", customer -> {
+            customer.get().setEmail("new@example.com");
+            return customer.get();
+        }));
+        Assertions.assertTrue(customerDao.getByIndex("email", "one@example.com").isEmpty());
+        Assertions.assertEquals("customer1", customerDao.getByIndex("email", "new@example.com").get(0).getExternalId());
+
+        customerDao.lockAndGetExecutor("customer2")
+                .mutate(customer -> customer.setEmail("two@example.com"))
+                .execute();
+        Assertions.assertEquals(1, customerDao.getByIndex("email", "shared@example.com").size());
+        Assertions.assertEquals("customer2", customerDao.getByIndex("email", "two@example.com").get(0).getExternalId());
+
+        //Deletes remove the entries of the deleted entity
+        Assertions.assertTrue(customerDao.delete("customer3"));
+        Assertions.assertTrue(customerDao.getByIndex("email", "shared@example.com").isEmpty());
+        Assertions.assertEquals(0, indexEntries("customer3"));
+
+        //Update queries move the entity to the entry of the value the query sets
+        Assertions.assertEquals(1, customerDao.updateUsingQuery("customer2", UpdateOperationMeta.builder()
+                .queryName("customerEmailUpdateQuery")
+                .params(ImmutableMap.of("email", "queried@example.com", "externalId", "customer2"))
+                .build()));
+        Assertions.assertTrue(customerDao.getByIndex("email", "two@example.com").isEmpty());
+        Assertions.assertEquals("customer2",
+                                customerDao.getByIndex("email", "queried@example.com").get(0).getExternalId());
+        Assertions.assertEquals(1, indexEntries("customer2"));
+
+        Assertions.assertEquals(2, customerDao.deleteAll(ImmutableList.of("customer1", "customer2", "customer4")));
+        Assertions.assertEquals(0, indexEntries("customer1"));
+        Assertions.assertEquals(0, indexEntries("customer2"));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> customerDao.getByIndex("name", "One"));
+    }
+
+    @Test
+    public void testGlobalIndexWrittenBeforeCommit() throws Exception {
+        customerDao.save(Customer.builder()
+                .externalId("customer1")
+                .email("one@example.com")
+                .name("One")
+                .build());
+
+        //Entities are not updated when the entries of their new values can not be written
+        failingStatement = "insert into global_index_entries";
+        Assertions.assertThrows(RuntimeException.class, () -> customerDao.update("customer1", customer -> {
+            customer.get().setEmail("new@example.com");
+            return customer.get();
+        }));
+        Assertions.assertThrows(RuntimeException.class, () -> customerDao.lockAndGetExecutor("customer1")
+                .mutate(customer -> customer.setEmail("new@example.com"))
+                .execute());
+        failingStatement = null;
+        Assertions.assertEquals("one@example.com", customerDao.get("customer1").get().getEmail());
+        Assertions.assertEquals("customer1", customerDao.getByIndex("email", "one@example.com").get(0).getExternalId());
+
+        //Entries of old values that can not be removed do not fail the committed update
+        failingStatement = "delete from global_index_entries";
+        Assertions.assertTrue(customerDao.update("customer1", customer -> {
+            customer.get().setEmail("new@example.com");
+            return customer.get();
+        }));
+        failingStatement = null;
+        Assertions.assertEquals(2, indexEntries("customer1"));
+        Assertions.assertTrue(customerDao.getByIndex("email", "one@example.com").isEmpty());
+        Assertions.assertEquals("customer1", customerDao.getByIndex("email", "new@example.com").get(0).getExternalId());
+    }
+
+    @Test
+    public void testGlobalIndexConcurrentAdds() throws Exception {
+        customerDao.save(Customer.builder()
+                .externalId("customer1")
+                .email("one@example.com")
+                .name("One")
+                .build());
+        //Writers racing to add the same entry all succeed and leave one entry behind
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> updates = IntStream.range(0, 8)
+                    .mapToObj(i -> executorService.submit(() -> customerDao.update("customer1", customer -> {
+                        customer.get().setEmail("same@example.com");
+                        return customer.get();
+                    })))
+                    .collect(Collectors.toList());
+            for (Future<Boolean> update : updates) {
+                Assertions.assertTrue(update.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertEquals(1, indexEntries("customer1"));
+        Assertions.assertEquals("customer1", customerDao.getByIndex("email", "same@example.com").get(0).getExternalId());
+    }
+
+    private long indexEntries(String lookupKey) {
+        return sessionFactories.stream()
+                .mapToLong(sessionFactory -> {
+                    try (Session session = sessionFactory.openSession()) {
+                        return session.createQuery("select count(e) from GlobalIndexEntry e where e.lookupKey = :key",
+                                                   Long.class)
+                                .setParameter("key", lookupKey)
+                                .uniqueResult();
+                    }
+                })
+                .sum();
+    }
+
+    @Test
+    public void testKeyFilters() throws Exception {
+        lookupDao.save(TestEntity.builder()
+                .externalId("before")
+                .text("Saved before the filters were built")
+                .build());
+        lookupDao.enableKeyFilters(KeyFilterConfig.builder()
+                .expectedKeysPerShard(1000)
+                .singleWriter(true)
+                .build());
+        lookupDao.save(TestEntity.builder()
+                .externalId("after")
+                .text("Saved after the filters were built")
+                .build());
+        lookupDao.saveAndGetExecutor(TestEntity.builder()
+                .externalId("inContext")
+                .text("Saved in a context")
+                .build())
+                .execute();
+
+        final long skipped = daoMetrics.getKeyFilters().getSkipped().getCount();
+        Assertions.assertTrue(lookupDao.get("before").isPresent());
+        Assertions.assertTrue(lookupDao.get("after").isPresent());
+        Assertions.assertTrue(lookupDao.exists("inContext"));
+        Assertions.assertEquals(skipped, daoMetrics.getKeyFilters().getSkipped().getCount());
+
+        Assertions.assertFalse(lookupDao.get("missing").isPresent());
+        Assertions.assertFalse(lookupDao.exists("missing"));
+        Assertions.assertEquals(ImmutableMap.of("before", true, "missing", false),
+                                lookupDao.existsAll(ImmutableList.of("before", "missing")));
+        Assertions.assertEquals(1, lookupDao.get(ImmutableList.of("after", "missing")).size());
+        Assertions.assertEquals(skipped + 4, daoMetrics.getKeyFilters().getSkipped().getCount());
+
+        //Deleted keys are dropped once the filters are built again
+        Assertions.assertTrue(lookupDao.delete("before"));
+        Assertions.assertFalse(lookupDao.get("before").isPresent());
+        lookupDao.rebuildKeyFilters();
+        Assertions.assertFalse(lookupDao.exists("before"));
+        Assertions.assertTrue(lookupDao.exists("after"));
+        Assertions.assertEquals(skipped + 5, daoMetrics.getKeyFilters().getSkipped().getCount());
+    }
+
+    @Test
+    public void testScanBuckets() throws Exception {
+        final List<String> keys = IntStream.range(0, 50)
+                .mapToObj(i -> "key" + i)
+                .collect(Collectors.toList());
+        for (String key : keys) {
+            lookupDao.save(TestEntity.builder()
+                    .externalId(key)
+                    .text("Text for " + key)
+                    .build());
+        }
+        final int numBuckets = shardCalculator.getShardManager().numBuckets();
+        final DetachedCriteria criteria = DetachedCriteria.forClass(TestEntity.class);
+
+        //Every object is read in exactly one of the units
+        final List<String> scanned = new ArrayList<>();
+        for (int fromBucket = 0; fromBucket < numBuckets; fromBucket += 128) {
+            try (Stream<TestEntity> unit = lookupDao.scanBuckets(fromBucket, fromBucket + 127, criteria)) {
+                unit.map(TestEntity::getExternalId).forEach(scanned::add);
+            }
+        }
+        Assertions.assertEquals(keys.stream().sorted().collect(Collectors.toList()),
+                                scanned.stream().sorted().collect(Collectors.toList()));
+
+        final int bucketId = shardCalculator.bucketId("key7");
+        try (Stream<TestEntity> bucket = lookupDao.scanBucket(bucketId, criteria)) {
+            Assertions.assertTrue(bucket.allMatch(entity -> shardCalculator.bucketId(entity.getExternalId()) == bucketId));
+        }
+        try (Stream<TestEntity> bucket = lookupDao.scanBucket(bucketId, criteria)) {
+            Assertions.assertTrue(bucket.anyMatch(entity -> entity.getExternalId().equals("key7")));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> lookupDao.scanBuckets(10, 5, criteria));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> lookupDao.scanBucket(numBuckets, criteria));
+    }
+
+    @Test
+    public void testBucketIdColumn() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            customerDao.save(Customer.builder()
+                    .externalId("customer" + i)
+                    .email("customer" + i + "@example.com")
+                    .build());
+        }
+        final int bucketId = shardCalculator.bucketId("customer5");
+        Assertions.assertEquals(bucketId, customerDao.get("customer5").get().getBucketId());
+
+        final Map<Integer, Long> counts = customerDao.countPerBucket(DetachedCriteria.forClass(Customer.class));
+        Assertions.assertEquals(20L, counts.values().stream().mapToLong(Long::longValue).sum());
+        try (Stream<Customer> bucket = customerDao.scanBucket(bucketId, DetachedCriteria.forClass(Customer.class))) {
+            Assertions.assertEquals(counts.get(bucketId).intValue(), bucket
+                    .peek(customer -> Assertions.assertEquals(bucketId, customer.getBucketId()))
+                    .count());
+        }
+        Assertions.assertThrows(IllegalStateException.class,
+                                () -> lookupDao.countPerBucket(DetachedCriteria.forClass(TestEntity.class)));
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.appform.dropwizard.sharding.dao;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import io.appform.dropwizard.sharding.dao.testdata.entities.RelationalEntity;
@@ -30,14 +31,24 @@ import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Restrictions;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
 public class RelationalDaoTest {
@@ -63,16 +74,18 @@ public class RelationalDaoTest {
         return configuration.buildSessionFactory(serviceRegistry);
     }
 
+    private ShardCalculator<String> shardCalculator;
+
     @BeforeEach
     public void before() {
         for (int i = 0; i < 16; i++) {
             sessionFactories.add(buildSessionFactory(String.format("db_%d", i)));
         }
         final ShardManager shardManager = new BalancedShardManager(sessionFactories.size());
+        shardCalculator = new ShardCalculator<>(shardManager, new ConsistentHashBucketIdExtractor<>(shardManager));
         relationalDao = new RelationalDao<>(sessionFactories,
                                             RelationalEntity.class,
-                                            new ShardCalculator<>(shardManager,
-                                                                  new ConsistentHashBucketIdExtractor<>(shardManager)));
+                                            shardCalculator);
     }
 
     @AfterEach
@@ -196,4 +209,275 @@ public class RelationalDaoTest {
         Assertions.assertNotNull(persistedEntityThree);
         Assertions.assertEquals(entityThree.getValue(), persistedEntityThree.getValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStatelessReads() throws Exception {
+        relationalDao.setReadMode(ReadMode.STATELESS);
+        String key = "testPhone";
+        relationalDao.saveAll(key, Lists.newArrayList(
+                RelationalEntity.builder().key("1").value("abcd").build(),
+                RelationalEntity.builder().key("2").value("efgh").build()));
+
+        Assertions.assertEquals("abcd", relationalDao.get(key, "1").get().getValue());
+        Assertions.assertFalse(relationalDao.get(key, "3").isPresent());
+        Assertions.assertEquals(2, relationalDao.select(key,
+                                                        DetachedCriteria.forClass(RelationalEntity.class),
+                                                        0,
+                                                        10).size());
+        Assertions.assertEquals(1, relationalDao.scatterGather(DetachedCriteria.forClass(RelationalEntity.class)
+                                                                       .add(Restrictions.eq("value", "efgh")),
+                                                               0,
+                                                               10).size());
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        final String key = "testPhone";
+        final List<RelationalEntity> entities = IntStream.range(0, 25)
+                .mapToObj(i -> RelationalEntity.builder().key(String.valueOf(i)).value("value" + i).build())
+                .collect(Collectors.toList());
+        relationalDao.saveAll(key, entities);
+        relationalDao.save("otherPhone", RelationalEntity.builder().key("other").value("value").build());
+
+        try (Stream<RelationalEntity> stream = relationalDao.stream(key,
+                                                                    DetachedCriteria.forClass(RelationalEntity.class),
+                                                                    10)) {
+            Assertions.assertEquals(25, stream.map(RelationalEntity::getKey).distinct().count());
+        }
+        try (Stream<RelationalEntity> stream = relationalDao.stream(key,
+                                                                    DetachedCriteria.forClass(RelationalEntity.class)
+                                                                            .add(Restrictions.eq("value", "value7")))) {
+            Assertions.assertEquals(ImmutableList.of("7"),
+                                    stream.map(RelationalEntity::getKey).collect(Collectors.toList()));
+        }
+        try (Stream<RelationalEntity> stream = relationalDao.streamAll(
+                DetachedCriteria.forClass(RelationalEntity.class), 4)) {
+            Assertions.assertEquals(26, stream.count());
+        }
+        try (Stream<RelationalEntity> stream = relationalDao.streamAll(
+                DetachedCriteria.forClass(RelationalEntity.class))) {
+            Assertions.assertEquals(3, stream.limit(3).count());
+        }
+    }
+
+    @Test
+    public void testKeysetPagination() throws Exception {
+        final String key = "testPhone";
+        final List<RelationalEntity> entities = IntStream.range(0, 25)
+                .mapToObj(i -> RelationalEntity.builder()
+                        .key(String.format("%02d", i))
+                        .value("value" + (i % 4))
+                        .build())
+                .collect(Collectors.toList());
+        relationalDao.saveAll(key, entities);
+        final List<String> expected = entities.stream()
+                .sorted(Comparator.comparing(RelationalEntity::getValue).thenComparing(RelationalEntity::getKey))
+                .map(RelationalEntity::getKey)
+                .collect(Collectors.toList());
+
+        final List<String> ascending = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            final KeysetPage<RelationalEntity> page = relationalDao.selectPage(
+                    key, DetachedCriteria.forClass(RelationalEntity.class), "value", token, 7);
+            page.getItems().forEach(entity -> ascending.add(entity.getKey()));
+            token = page.getNextToken();
+            pages++;
+        } while (null != token);
+        Assertions.assertEquals(expected, ascending);
+        Assertions.assertEquals(4, pages);
+
+        final List<String> descending = new ArrayList<>();
+        token = null;
+        do {
+            final KeysetPage<RelationalEntity> page = relationalDao.selectPage(
+                    key, DetachedCriteria.forClass(RelationalEntity.class), "value", false, token, 10);
+            page.getItems().forEach(entity -> descending.add(entity.getKey()));
+            token = page.getNextToken();
+        } while (null != token);
+        Assertions.assertEquals(Lists.reverse(expected), descending);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> relationalDao.selectPage(
+                key, DetachedCriteria.forClass(RelationalEntity.class), "value", "notAToken", 7));
+    }
+
+    @Test
+    public void testKeysetPaginationOnTemporalField() throws Exception {
+        final String key = "testPhone";
+        //All rows fall in the same millisecond, so tokens that drop the sub millisecond part repeat rows
+        final LocalDateTime base = LocalDateTime.of(2020, 1, 1, 10, 0, 0, 123_000_000);
+        final List<RelationalEntity> entities = IntStream.range(0, 20)
+                .mapToObj(i -> RelationalEntity.builder()
+                        .key(String.format("%02d", i))
+                        .value("value" + i)
+                        .updatedAt(base.plus(i % 6, ChronoUnit.MICROS))
+                        .build())
+                .collect(Collectors.toList());
+        relationalDao.saveAll(key, entities);
+        final List<String> expected = entities.stream()
+                .sorted(Comparator.comparing(RelationalEntity::getUpdatedAt).thenComparing(RelationalEntity::getKey))
+                .map(RelationalEntity::getKey)
+                .collect(Collectors.toList());
+
+        final List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            final KeysetPage<RelationalEntity> page = relationalDao.selectPage(
+                    key, DetachedCriteria.forClass(RelationalEntity.class), "updatedAt", token, 3);
+            page.getItems().forEach(entity -> keys.add(entity.getKey()));
+            token = page.getNextToken();
+        } while (null != token);
+        Assertions.assertEquals(expected, keys);
+    }
+
+    @Test
+    public void testChunkedUpdateAll() throws Exception {
+        final String key = "testPhone";
+        relationalDao.saveAll(key, IntStream.range(0, 25)
+                .mapToObj(i -> RelationalEntity.builder().key(String.format("%02d", i)).value("value").build())
+                .collect(Collectors.toList()));
+        final DetachedCriteria criteria = DetachedCriteria.forClass(RelationalEntity.class);
+
+        Assertions.assertEquals(25, relationalDao.updateAll(key, criteria, entity -> {
+            entity.setValue("scrolled");
+            return entity;
+        }, 4));
+        Assertions.assertEquals(25, relationalDao.select(key, DetachedCriteria.forClass(RelationalEntity.class)
+                .add(Restrictions.eq("value", "scrolled")), 0, 100).size());
+
+        final List<String> checkpoints = new ArrayList<>();
+        Assertions.assertEquals(25, relationalDao.updateAllInChunks(key, criteria, entity -> {
+            entity.setValue("chunked");
+            return entity;
+        }, 10, null, checkpoints::add));
+        Assertions.assertEquals(3, checkpoints.size());
+        Assertions.assertNull(checkpoints.get(2));
+        Assertions.assertEquals(25, relationalDao.select(key, DetachedCriteria.forClass(RelationalEntity.class)
+                .add(Restrictions.eq("value", "chunked")), 0, 100).size());
+
+        Assertions.assertEquals(15, relationalDao.updateAllInChunks(key, criteria, entity -> {
+            entity.setValue("resumed");
+            return entity;
+        }, 10, checkpoints.get(0), checkpoint -> {}));
+        Assertions.assertEquals(10, relationalDao.select(key, DetachedCriteria.forClass(RelationalEntity.class)
+                .add(Restrictions.eq("value", "chunked")), 0, 100).size());
+
+        //Entities the updater changes in place and then skips are not written
+        for (UpdateMode updateMode : UpdateMode.values()) {
+            relationalDao.setUpdateMode(updateMode);
+            Assertions.assertEquals(0, relationalDao.updateAll(key, criteria, entity -> {
+                entity.setValue("skipped");
+                return null;
+            }, 4));
+            Assertions.assertEquals(0, relationalDao.updateAllInChunks(key, criteria, entity -> {
+                entity.setValue("skipped");
+                return null;
+            }, 10, null, null));
+            Assertions.assertTrue(relationalDao.select(key, DetachedCriteria.forClass(RelationalEntity.class)
+                    .add(Restrictions.eq("value", "skipped")), 0, 100).isEmpty());
+        }
+    }
+
+    @Test
+    public void testSelectForParents() throws Exception {
+        final List<String> parents = IntStream.range(0, 6)
+                .mapToObj(i -> "parent" + i)
+                .collect(Collectors.toList());
+        for (int i = 0; i < parents.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                relationalDao.save(parents.get(i), RelationalEntity.builder()
+                        .key(parents.get(i) + "-" + j)
+                        .keyTwo(parents.get(i))
+                        .value("value")
+                        .build());
+            }
+        }
+
+        final Map<String, List<RelationalEntity>> result = relationalDao.selectForParents(
+                parents,
+                keys -> DetachedCriteria.forClass(RelationalEntity.class).add(Restrictions.in("keyTwo", keys)),
+                RelationalEntity::getKeyTwo);
+        Assertions.assertEquals(parents, ImmutableList.copyOf(result.keySet()));
+        for (int i = 0; i < parents.size(); i++) {
+            Assertions.assertEquals(i, result.get(parents.get(i)).size());
+        }
+    }
+
+    @Test
+    public void testBucketIdColumn() throws Exception {
+        final List<String> parentKeys = IntStream.range(0, 20)
+                .mapToObj(i -> "parent" + i)
+                .collect(Collectors.toList());
+        for (String parentKey : parentKeys) {
+            relationalDao.saveAll(parentKey, IntStream.range(0, 3)
+                    .mapToObj(i -> RelationalEntity.builder()
+                            .key(parentKey + "-" + i)
+                            .keyTwo(parentKey)
+                            .value(Integer.toString(i))
+                            .build())
+                    .collect(Collectors.toList()));
+        }
+        final int bucketId = shardCalculator.bucketId("parent3");
+        Assertions.assertEquals(bucketId, relationalDao.get("parent3", "parent3-0")
+                .map(RelationalEntity::getBucketId)
+                .orElse(-1)
+                .intValue());
+
+        final Map<Integer, Long> counts = relationalDao.countPerBucket(DetachedCriteria.forClass(RelationalEntity.class));
+        Assertions.assertEquals(60L, counts.values().stream().mapToLong(Long::longValue).sum());
+        Assertions.assertTrue(counts.get(bucketId) >= 3);
+
+        try (Stream<RelationalEntity> bucket = relationalDao.scanBuckets(
+                bucketId, bucketId, DetachedCriteria.forClass(RelationalEntity.class))) {
+            final List<RelationalEntity> entities = bucket.collect(Collectors.toList());
+            Assertions.assertEquals(counts.get(bucketId).intValue(), entities.size());
+            Assertions.assertTrue(entities.stream().anyMatch(entity -> entity.getKeyTwo().equals("parent3")));
+            Assertions.assertTrue(entities.stream().allMatch(entity -> entity.getBucketId() == bucketId));
+        }
+    }
+
+    @Test
+    public void testBucketIdKeptOnUpdate() throws Exception {
+        final String parentKey = "parent";
+        final int bucketId = shardCalculator.bucketId(parentKey);
+        relationalDao.save(parentKey, RelationalEntity.builder()
+                .key("child")
+                .keyTwo(parentKey)
+                .value("0")
+                .build());
+        final Function<RelationalEntity, RelationalEntity> fresh = entity -> RelationalEntity.builder()
+                .key(entity.getKey())
+                .keyTwo(entity.getKeyTwo())
+                .value(Integer.toString(Integer.parseInt(entity.getValue()) + 1))
+                .build();
+        final DetachedCriteria criteria = DetachedCriteria.forClass(RelationalEntity.class)
+                .add(Restrictions.eq("key", "child"));
+
+        Assertions.assertTrue(relationalDao.update(parentKey, "child", fresh));
+        Assertions.assertEquals(bucketId, relationalDao.get(parentKey, "child").get().getBucketId().intValue());
+        Assertions.assertTrue(relationalDao.update(parentKey, criteria, fresh));
+        Assertions.assertEquals(bucketId, relationalDao.get(parentKey, "child").get().getBucketId().intValue());
+        Assertions.assertTrue(relationalDao.updateAll(parentKey, 0, 10, criteria, fresh));
+        Assertions.assertEquals(bucketId, relationalDao.get(parentKey, "child").get().getBucketId().intValue());
+        Assertions.assertEquals(1, relationalDao.updateAll(parentKey, criteria, fresh, 10));
+        Assertions.assertEquals("4", relationalDao.get(parentKey, "child").get().getValue());
+        Assertions.assertEquals(bucketId, relationalDao.get(parentKey, "child").get().getBucketId().intValue());
+
+        //Rows written without a bucket are not scanned until they are updated
+        relationalDao.runInSession(parentKey, session -> session
+                .createQuery("update RelationalEntity set bucketId = null")
+                .executeUpdate());
+        try (Stream<RelationalEntity> bucket = relationalDao.scanBuckets(
+                bucketId, bucketId, DetachedCriteria.forClass(RelationalEntity.class))) {
+            Assertions.assertEquals(0, bucket.count());
+        }
+        Assertions.assertEquals(1, relationalDao.updateAllInChunks(
+                parentKey, DetachedCriteria.forClass(RelationalEntity.class), Function.identity(), 10, null,
+                checkpoint -> {}));
+        try (Stream<RelationalEntity> bucket = relationalDao.scanBuckets(
+                bucketId, bucketId, DetachedCriteria.forClass(RelationalEntity.class))) {
+            Assertions.assertEquals(1, bucket.count());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.appform.dropwizard.sharding.dao;
+
+import io.appform.dropwizard.sharding.sharding.BalancedShardManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ShardFanoutTest {
+
+    private static final Map<Integer, Integer> SHARDS = IntStream.range(0, 8)
+            .boxed()
+            .collect(Collectors.toMap(Function.identity(), Function.identity()));
+
+    @Test
+    public void testCallsRunOnCallerWithoutExecutor() {
+        final Map<Integer, Thread> threads = new ConcurrentHashMap<>();
+        final Map<Integer, Integer> results = ShardFanout.execute(null, SHARDS, (shardId, value) -> {
+            threads.put(shardId, Thread.currentThread());
+            return value * 2;
+        });
+        Assertions.assertEquals(SHARDS.size(), results.size());
+        SHARDS.forEach((shardId, value) -> Assertions.assertEquals(value * 2, results.get(shardId).intValue()));
+        Assertions.assertTrue(threads.values().stream().allMatch(Thread.currentThread()::equals));
+    }
+
+    @Test
+    public void testSaturatedExecutorRunsCallsOnCaller() {
+        final BalancedShardManager shardManager = new BalancedShardManager(8);
+        final ExecutorService executor = shardManager.enableFanout(2, "fanout-test");
+        try {
+            final Map<Integer, Thread> threads = new ConcurrentHashMap<>();
+            final Map<Integer, Integer> results = ShardFanout.execute(executor, SHARDS, (shardId, value) -> {
+                threads.put(shardId, Thread.currentThread());
+                return value * 2;
+            });
+            Assertions.assertEquals(SHARDS.size(), results.size());
+            SHARDS.forEach((shardId, value) -> Assertions.assertEquals(value * 2, results.get(shardId).intValue()));
+            Assertions.assertTrue(threads.values().stream().distinct().count() <= 3);
+            Assertions.assertTrue(threads.values().contains(Thread.currentThread()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.dao.testdata.entities;
+
+import io.appform.dropwizard.sharding.sharding.BucketId;
+import io.appform.dropwizard.sharding.sharding.GlobalIndex;
+import io.appform.dropwizard.sharding.sharding.LookupKey;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "customers")
+@NamedQueries({
+        @NamedQuery(name = "customerEmailUpdateQuery",
+                query = "update Customer set email = :email where externalId = :externalId")})
+public class Customer {
+    @Id
+    @LookupKey
+    @Column(name = "ext_id")
+    private String externalId;
+
+    @GlobalIndex
+    @Column(name = "email")
+    private String email;
+
+    @Column(name = "name")
+    private String name;
+
+    @BucketId
+    @Column(name = "bucket_id")
+    private int bucketId;
+}
@@ -1,5 +1,6 @@
 package io.appform.dropwizard.sharding.dao.testdata.entities;
 
+import io.appform.dropwizard.sharding.sharding.BucketId;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -8,16 +9,18 @@ import lombok.NoArgsConstructor;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import java.time.LocalDateTime;
 
 @Entity
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-@Table(name = "relations")
+@Table(name = "relations", indexes = @Index(name = "idx_relations_bucket", columnList = "bucket_id"))
 @NamedQueries({
         @NamedQuery(name = "testUpdateUsingKeyTwo", query = "update RelationalEntity set value = :value where keyTwo =:keyTwo")})
 public class RelationalEntity {
@@ -30,4 +33,10 @@ public class RelationalEntity {
 
     private String value;
 
+    private LocalDateTime updatedAt;
+
+    @BucketId
+    @Column(name = "bucket_id")
+    private Integer bucketId;
+
 }
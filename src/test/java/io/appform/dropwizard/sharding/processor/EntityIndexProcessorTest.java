@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.appform.dropwizard.sharding.dao.testdata.multi.MultiPackageTestEntity;
+import io.appform.dropwizard.sharding.utils.EntityIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.persistence.Entity;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URLClassLoader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class EntityIndexProcessorTest {
+
+    @TempDir
+    Path output;
+
+    @TempDir
+    Path unindexedOutput;
+
+    @Test
+    public void testEntityIndex() throws Exception {
+        compile(output, true, source("idx.test.IndexedEntity",
+                       "package idx.test;\n"
+                               + "@javax.persistence.Entity\n"
+                               + "public class IndexedEntity {\n"
+                               + "    @javax.persistence.Entity\n"
+                               + "    public static class Nested {\n"
+                               + "    }\n"
+                               + "}\n"),
+                source("idx.test.NotAnEntity",
+                       "package idx.test;\n"
+                               + "public class NotAnEntity {\n"
+                               + "}\n"));
+
+        final Path index = output.resolve(EntityIndex.LOCATION);
+        Assertions.assertEquals(ImmutableList.of("idx.test.IndexedEntity", "idx.test.IndexedEntity$Nested"),
+                                Files.readAllLines(index, StandardCharsets.UTF_8));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()},
+                                                             getClass().getClassLoader())) {
+            final Set<Class<?>> indexed = EntityIndex.entities(classLoader, ImmutableList.of("idx.test"));
+            Assertions.assertEquals(ImmutableList.of("idx.test.IndexedEntity", "idx.test.IndexedEntity$Nested"),
+                                    indexed.stream().map(Class::getName).collect(Collectors.toList()));
+
+            //Packages without indexed entities are scanned
+            final Set<Class<?>> scanned = EntityIndex.entities(
+                    classLoader, ImmutableList.of("io.appform.dropwizard.sharding.dao.testdata.multi"));
+            Assertions.assertTrue(scanned.contains(MultiPackageTestEntity.class));
+        }
+    }
+
+    @Test
+    public void testPackageSpreadOverIndexedAndUnindexedRoots() throws Exception {
+        compile(output, true, source("idx.test.IndexedEntity",
+                                     "package idx.test;\n"
+                                             + "@javax.persistence.Entity\n"
+                                             + "public class IndexedEntity {\n"
+                                             + "}\n"));
+        compile(unindexedOutput, false, source("idx.test.UnindexedEntity",
+                                               "package idx.test;\n"
+                                                       + "@javax.persistence.Entity\n"
+                                                       + "public class UnindexedEntity {\n"
+                                                       + "}\n"));
+        Assertions.assertFalse(Files.exists(unindexedOutput.resolve(EntityIndex.LOCATION)));
+
+        try (URLClassLoader classLoader = new URLClassLoader(
+                new URL[]{output.toUri().toURL(), unindexedOutput.toUri().toURL()}, getClass().getClassLoader())) {
+            final Set<Class<?>> entities = EntityIndex.entities(classLoader, ImmutableList.of("idx.test"));
+            Assertions.assertEquals(ImmutableSet.of("idx.test.IndexedEntity", "idx.test.UnindexedEntity"),
+                                    entities.stream().map(Class::getName).collect(Collectors.toSet()));
+        }
+    }
+
+    private void compile(Path output, boolean indexed, JavaFileObject... sources) throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final String classPath = new File(Entity.class.getProtectionDomain()
+                                                  .getCodeSource()
+                                                  .getLocation()
+                                                  .toURI()).getPath();
+        final List<String> options = ImmutableList.of("-d", output.toString(), "-classpath", classPath);
+        final JavaCompiler.CompilationTask task = compiler.getTask(
+                null, null, null, options, null, ImmutableList.copyOf(sources));
+        task.setProcessors(indexed
+                           ? ImmutableList.of(new EntityIndexProcessor())
+                           : ImmutableList.of());
+        Assertions.assertTrue(task.call());
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"),
+                                        JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
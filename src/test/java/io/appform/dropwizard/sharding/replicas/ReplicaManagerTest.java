@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.replicas;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import io.appform.dropwizard.sharding.config.ReplicaConfig;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+
+public class ReplicaManagerTest {
+
+    private final ReplicaManager replicaManager = new ReplicaManager(ImmutableList.of(
+            ImmutableList.of(mock(SessionFactory.class), mock(SessionFactory.class)),
+            Collections.emptyList()));
+
+    @Test
+    public void testLeastOutstandingSelection() {
+        ReplicaManager.Lease first = replicaManager.acquire(0);
+        ReplicaManager.Lease second = replicaManager.acquire(0);
+        Assertions.assertNotEquals(first.getReplicaId(), second.getReplicaId());
+        Assertions.assertEquals(1, replicaManager.outstandingRequests(0, first.getReplicaId()));
+
+        first.close();
+        try (ReplicaManager.Lease third = replicaManager.acquire(0)) {
+            Assertions.assertEquals(first.getReplicaId(), third.getReplicaId());
+        }
+        second.close();
+        Assertions.assertEquals(0, replicaManager.outstandingRequests(0, 0));
+        Assertions.assertEquals(0, replicaManager.outstandingRequests(0, 1));
+    }
+
+    @Test
+    public void testStreamHoldsLeaseUntilClosed() {
+        final AtomicInteger replicaId = new AtomicInteger(-1);
+        try (Stream<Integer> stream = replicaManager.stream(0, lease -> {
+            replicaId.set(lease.getReplicaId());
+            return Stream.of(1, 2, 3);
+        })) {
+            Assertions.assertEquals(3, stream.count());
+            Assertions.assertEquals(1, replicaManager.outstandingRequests(0, replicaId.get()));
+        }
+        Assertions.assertEquals(0, replicaManager.outstandingRequests(0, replicaId.get()));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> replicaManager.stream(0, lease -> {
+            throw new IllegalStateException();
+        }));
+        Assertions.assertEquals(0, replicaManager.outstandingRequests(0, 0));
+        Assertions.assertEquals(0, replicaManager.outstandingRequests(0, 1));
+    }
+
+    @Test
+    public void testReadPreference() throws Exception {
+        Assertions.assertFalse(isPrimary(0));
+        Assertions.assertTrue(isPrimary(1));
+        Assertions.assertTrue(isPrimary(2));
+        Assertions.assertTrue(ReadPreferences.fromPrimary(() -> isPrimary(0)));
+        Assertions.assertFalse(isPrimary(0));
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        final ReplicaManager laggingReplicas = new ReplicaManager(
+                ImmutableList.of(ImmutableList.of(mock(SessionFactory.class))),
+                ReplicaConfig.builder().maxReplicationLagMs(60_000).maxClockSkewMs(0).build());
+        final ConsistencySession session = new ConsistencySession();
+        Assertions.assertFalse(session.execute(() -> isPrimary(laggingReplicas, 0)));
+
+        session.execute(() -> {
+            ConsistencySession.recordCommit(0);
+            return null;
+        });
+        Assertions.assertTrue(session.execute(() -> isPrimary(laggingReplicas, 0)));
+        Assertions.assertFalse(isPrimary(laggingReplicas, 0));
+
+        laggingReplicas.updateReplicationLag(0, 0, 0);
+        Assertions.assertFalse(session.execute(() -> isPrimary(laggingReplicas, 0)));
+    }
+
+    @Test
+    public void testMeasuredReplicationLag() throws Exception {
+        final ReplicaManager replicas = new ReplicaManager(
+                ImmutableList.of(ImmutableList.of(mock(SessionFactory.class))),
+                ReplicaConfig.builder().maxReplicationLagMs(1_000).maxClockSkewMs(100).build());
+        final ConsistencySession session = new ConsistencySession();
+        session.recordWrite(0, System.currentTimeMillis() - 5_000);
+        Assertions.assertFalse(session.execute(() -> isPrimary(replicas, 0)));
+
+        //A replica measured to be further behind than the assumed lag is skipped
+        replicas.updateReplicationLag(0, 0, 60_000);
+        Assertions.assertTrue(session.execute(() -> isPrimary(replicas, 0)));
+        replicas.updateReplicationLag(0, 0, 0);
+        Assertions.assertFalse(session.execute(() -> isPrimary(replicas, 0)));
+
+        //Writes less than the clock skew ago are not trusted to be on the replica
+        session.recordWrite(0, System.currentTimeMillis());
+        replicas.updateReplicationLag(0, 0, 0);
+        Assertions.assertTrue(session.execute(() -> isPrimary(replicas, 0)));
+    }
+
+    @Test
+    public void testPolledReplicationLag() throws Exception {
+        final SessionFactory replica = buildSessionFactory();
+        try {
+            final ReplicaManager replicas = new ReplicaManager(
+                    ImmutableList.of(ImmutableList.of(replica)),
+                    ReplicaConfig.builder()
+                            .replicationLagQuery("SELECT 60000")
+                            .maxReplicationLagMs(0)
+                            .build());
+            final ConsistencySession session = new ConsistencySession();
+            session.recordWrite(0, System.currentTimeMillis() - 5_000);
+
+            //Replicas are skipped after writes until their lag has been read
+            Assertions.assertTrue(session.execute(() -> isPrimary(replicas, 0)));
+            replicas.pollReplicationLags();
+            Assertions.assertEquals(60_000L, replicas.replicationLag(0, 0));
+            Assertions.assertTrue(session.execute(() -> isPrimary(replicas, 0)));
+            Assertions.assertFalse(isPrimary(replicas, 0));
+        }
+        finally {
+            replica.close();
+        }
+    }
+
+    @Test
+    public void testTokenRoundTrip() {
+        final ConsistencySession session = new ConsistencySession();
+        session.recordWrite(3, 200L);
+        session.recordWrite(1, 100L);
+        session.recordWrite(1, 50L);
+        Assertions.assertEquals("1:100,3:200", session.token());
+
+        final ConsistencySession restored = ConsistencySession.fromToken(session.token());
+        Assertions.assertEquals(100L, restored.lastWrite(1).getAsLong());
+        Assertions.assertEquals(200L, restored.lastWrite(3).getAsLong());
+        Assertions.assertFalse(restored.lastWrite(0).isPresent());
+
+        Assertions.assertEquals("", ConsistencySession.fromToken("garbage").token());
+        Assertions.assertEquals("", ConsistencySession.fromToken(null).token());
+    }
+
+    @Test
+    public void testHedgedRead() throws Exception {
+        final MetricRegistry metrics = new MetricRegistry();
+        final ReplicaManager hedging = hedgingReplicaManager(metrics, 1.0);
+        warmUp(hedging);
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final String result = hedging.hedgedRead(0, lease -> attempts.getAndIncrement() == 0
+                ? sleepAndGet(5_000, "slow")
+                : "fast");
+        Assertions.assertEquals("fast", result);
+        Assertions.assertEquals(2, attempts.get());
+        Assertions.assertEquals(1, metrics.counter("io.appform.dropwizard.sharding.replicas.ReplicaManager.test.shard-0.hedged").getCount());
+        Assertions.assertEquals(1, metrics.counter("io.appform.dropwizard.sharding.replicas.ReplicaManager.test.shard-0.hedgeWins").getCount());
+
+        //The slower read is cancelled and releases its replica
+        final long deadline = System.currentTimeMillis() + 1_000;
+        while (hedging.outstandingRequests(0, 0) + hedging.outstandingRequests(0, 1) > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, hedging.outstandingRequests(0, 0));
+        Assertions.assertEquals(0, hedging.outstandingRequests(0, 1));
+        hedging.stop();
+    }
+
+    @Test
+    public void testHedgeBudget() {
+        final MetricRegistry metrics = new MetricRegistry();
+        final ReplicaManager hedging = hedgingReplicaManager(metrics, 0.0);
+        warmUp(hedging);
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final String result = hedging.hedgedRead(0, lease -> attempts.getAndIncrement() == 0
+                ? sleepAndGet(200, "slow")
+                : "fast");
+        Assertions.assertEquals("slow", result);
+        Assertions.assertEquals(1, attempts.get());
+        Assertions.assertEquals(0, metrics.counter("io.appform.dropwizard.sharding.replicas.ReplicaManager.test.shard-0.hedged").getCount());
+        hedging.stop();
+    }
+
+    private static ReplicaManager hedgingReplicaManager(MetricRegistry metrics, double hedgeBudgetRatio) {
+        return new ReplicaManager(
+                ImmutableList.of(ImmutableList.of(mock(SessionFactory.class), mock(SessionFactory.class))),
+                ReplicaConfig.builder()
+                        .hedgedReads(true)
+                        .hedgeBudgetRatio(hedgeBudgetRatio)
+                        .minHedgeDelayMs(1)
+                        .build(),
+                metrics,
+                "test");
+    }
+
+    private static SessionFactory buildSessionFactory() {
+        final Configuration configuration = new Configuration();
+        configuration.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        configuration.setProperty("hibernate.connection.url", "jdbc:h2:mem:replica_lag");
+        configuration.setProperty("hibernate.current_session_context_class", "managed");
+        final StandardServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
+                .applySettings(configuration.getProperties())
+                .build();
+        return configuration.buildSessionFactory(serviceRegistry);
+    }
+
+    private static void warmUp(ReplicaManager replicaManager) {
+        for (int i = 0; i < 100; i++) {
+            replicaManager.read(0, lease -> lease);
+        }
+    }
+
+    private static String sleepAndGet(long millis, String value) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        return value;
+    }
+
+    private boolean isPrimary(int shardId) {
+        return isPrimary(replicaManager, shardId);
+    }
+
+    private static boolean isPrimary(ReplicaManager replicaManager, int shardId) {
+        try (ReplicaManager.Lease lease = replicaManager.acquire(shardId)) {
+            return lease.isPrimary();
+        }
+    }
+}
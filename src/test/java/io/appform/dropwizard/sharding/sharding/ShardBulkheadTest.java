@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import io.appform.dropwizard.sharding.config.BulkheadConfig;
+import io.appform.dropwizard.sharding.exceptions.ShardOverloadedException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class ShardBulkheadTest {
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        final BalancedShardManager shardManager = new BalancedShardManager(16);
+        shardManager.enableBulkhead(BulkheadConfig.builder()
+                .maxConcurrentCalls(1)
+                .build());
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final Future<Boolean> blocker = executorService.submit(() -> shardManager.guard(0, () -> {
+                running.countDown();
+                awaitUninterruptibly(release);
+                return true;
+            }));
+            running.await();
+            Assertions.assertEquals(0, shardManager.getBulkhead().availableSlots(0));
+            Assertions.assertThrows(ShardOverloadedException.class, () -> shardManager.guard(0, () -> true));
+            Assertions.assertTrue(shardManager.guard(1, () -> true));
+
+            release.countDown();
+            Assertions.assertTrue(blocker.get());
+            Assertions.assertTrue(shardManager.guard(0, () -> true));
+            Assertions.assertEquals(1, shardManager.getBulkhead().availableSlots(0));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBoundedQueueing() throws Exception {
+        final ShardBulkhead bulkhead = new ShardBulkhead(2, BulkheadConfig.builder()
+                .maxConcurrentCalls(1)
+                .maxQueuedCalls(1)
+                .maxWaitMs(5_000)
+                .build());
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executorService.submit(() -> bulkhead.execute(0, () -> {
+                running.countDown();
+                awaitUninterruptibly(release);
+                return true;
+            }));
+            running.await();
+            final Future<Boolean> queued = executorService.submit(() -> bulkhead.execute(0, () -> true));
+            while (!bulkhead.hasQueuedCalls(0)) {
+                Thread.sleep(5);
+            }
+            Assertions.assertThrows(ShardOverloadedException.class, () -> bulkhead.execute(0, () -> true));
+
+            release.countDown();
+            Assertions.assertTrue(queued.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStreamHoldsSlotUntilClosed() {
+        final BalancedShardManager shardManager = new BalancedShardManager(16);
+        shardManager.enableBulkhead(BulkheadConfig.builder()
+                .maxConcurrentCalls(1)
+                .build());
+        try (Stream<Integer> stream = shardManager.guardStream(0, () -> Stream.of(1, 2, 3))) {
+            Assertions.assertEquals(0, shardManager.getBulkhead().availableSlots(0));
+            Assertions.assertEquals(3, stream.count());
+            Assertions.assertThrows(ShardOverloadedException.class, () -> shardManager.guard(0, () -> true));
+        }
+        Assertions.assertEquals(1, shardManager.getBulkhead().availableSlots(0));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> shardManager.guardStream(0, () -> {
+            throw new IllegalStateException();
+        }));
+        Assertions.assertEquals(1, shardManager.getBulkhead().availableSlots(0));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
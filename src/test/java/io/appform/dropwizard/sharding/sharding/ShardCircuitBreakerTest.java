@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Santanu Sinha <santanu.sinha@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.appform.dropwizard.sharding.sharding;
+
+import io.appform.dropwizard.sharding.config.CircuitBreakerConfig;
+import io.appform.dropwizard.sharding.exceptions.ShardCircuitOpenException;
+import org.hibernate.exception.JDBCConnectionException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+public class ShardCircuitBreakerTest {
+
+    private BalancedShardManager shardManager;
+    private ShardCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void before() {
+        shardManager = new BalancedShardManager(16);
+        shardManager.enableCircuitBreaker(CircuitBreakerConfig.builder()
+                .minCalls(4)
+                .failureRateThreshold(0.5)
+                .openDurationMs(100)
+                .probeCalls(2)
+                .build());
+        circuitBreaker = shardManager.getCircuitBreaker();
+    }
+
+    @Test
+    public void testTripAndRecover() throws Exception {
+        final int shardId = shardManager.shardForBucket(1023);
+        succeed(shardId);
+        succeed(shardId);
+        fail(shardId, new RuntimeException("Not a shard failure"));
+        Assertions.assertEquals(ShardCircuitBreaker.State.CLOSED, circuitBreaker.state(shardId));
+
+        fail(shardId, connectionError());
+        fail(shardId, connectionError());
+        Assertions.assertEquals(ShardCircuitBreaker.State.CLOSED, circuitBreaker.state(shardId));
+        fail(shardId, connectionError());
+        Assertions.assertEquals(ShardCircuitBreaker.State.OPEN, circuitBreaker.state(shardId));
+        Assertions.assertThrows(ShardCircuitOpenException.class, () -> shardManager.shardForBucket(1023));
+        Assertions.assertFalse(shardManager.isMappedToValidShard(1023));
+        Assertions.assertThrows(ShardCircuitOpenException.class, () -> succeed(shardId));
+        Assertions.assertEquals(0, shardManager.shardForBucket(0));
+
+        Thread.sleep(150);
+        Assertions.assertEquals(shardId, shardManager.shardForBucket(1023));
+        succeed(shardId);
+        Assertions.assertEquals(ShardCircuitBreaker.State.HALF_OPEN, circuitBreaker.state(shardId));
+        succeed(shardId);
+        Assertions.assertEquals(ShardCircuitBreaker.State.CLOSED, circuitBreaker.state(shardId));
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            fail(0, connectionError());
+        }
+        Assertions.assertTrue(circuitBreaker.isOpen(0));
+        Thread.sleep(150);
+        Assertions.assertFalse(circuitBreaker.isOpen(0));
+        fail(0, connectionError());
+        Assertions.assertTrue(circuitBreaker.isOpen(0));
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        final ShardCircuitBreaker disabled = new BalancedShardManager(16).getCircuitBreaker();
+        for (int i = 0; i < 100; i++) {
+            fail(disabled, 0, connectionError());
+        }
+        Assertions.assertEquals(ShardCircuitBreaker.State.CLOSED, disabled.state(0));
+    }
+
+    private void succeed(int shardId) {
+        Assertions.assertTrue(circuitBreaker.execute(shardId, () -> true));
+    }
+
+    private void fail(int shardId, RuntimeException e) {
+        fail(circuitBreaker, shardId, e);
+    }
+
+    private static void fail(ShardCircuitBreaker circuitBreaker, int shardId, RuntimeException e) {
+        Assertions.assertThrows(e.getClass(), () -> circuitBreaker.execute(shardId, () -> {
+            throw e;
+        }));
+    }
+
+    private static RuntimeException connectionError() {
+        return new RuntimeException(new JDBCConnectionException("Connection refused", new SQLException()));
+    }
+}